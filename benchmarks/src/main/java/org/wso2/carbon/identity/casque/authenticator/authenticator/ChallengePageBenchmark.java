@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cost of rendering the challenge page from the cached template into a response whose
+ * output is discarded, e.g.
+ * java -jar benchmarks/target/benchmarks.jar ChallengePageBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class ChallengePageBenchmark {
+
+    private static final String SESSION_DATA_KEY = "6f1c1b4e-3c8e-4a8e-9d2b-6a1f0c2d7e55";
+    private static final String CHALLENGE = "CHALLENGE 0123456789ABCDEF0123456789ABCDEF";
+
+    private final AuthPages authPages = new AuthPages();
+    private final DiscardingOutputStream out = new DiscardingOutputStream();
+    private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+            HttpServletResponse.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getOutputStream":
+                        return out;
+                    case "getBufferSize":
+                        return 8192;
+                    default:
+                        return null;
+                }
+            });
+
+    @Benchmark
+    public long challengePage() throws CasqueException {
+
+        authPages.challengePage(response, SESSION_DATA_KEY, CHALLENGE);
+        return out.written;
+    }
+
+    /**
+     * Servlet output stream counting the bytes written to it.
+     */
+    private static class DiscardingOutputStream extends ServletOutputStream {
+
+        private long written;
+
+        @Override
+        public void write(int b) {
+
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+            written += len;
+        }
+
+        @Override
+        public boolean isReady() {
+
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+
+        }
+    }
+}
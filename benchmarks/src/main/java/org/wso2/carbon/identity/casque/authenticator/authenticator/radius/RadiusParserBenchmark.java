@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking and parsing an Access-Challenge and of hiding the User-Password.
+ * parseResponse is the path the selector threads take, parsePacket the older per request
+ * object API. Run with -prof gc to see the allocation, e.g.
+ * java -jar benchmarks/target/benchmarks.jar RadiusParserBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class RadiusParserBenchmark {
+
+    private static final byte[] SECRET = "benchmark-secret".getBytes(StandardCharsets.UTF_8);
+    private static final String PASSWORD = "0123456789abcdef0123456789abcdef";
+
+    private final byte[] request = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+    private final byte[] passwordBuffer = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+    private RadiusPacket packet;
+    private byte[] reply;
+    private DatagramPacket packetReply;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        RadiusPacket.encodeRequest(request, 1, "casque-user-0001", PASSWORD, null, SECRET);
+        reply = challenge(request, 4);
+        packet = new RadiusPacket(SECRET);
+        byte[] packetRequest = packet.formRequestPacket(1, "casque-user-0001", PASSWORD, null);
+        byte[] packetReplyData = challenge(packetRequest, 4);
+        packetReply = new DatagramPacket(packetReplyData, packetReplyData.length);
+        System.arraycopy(request, 4, passwordBuffer, 4, 16);
+    }
+
+    @Benchmark
+    public RadiusResponse parseResponse() {
+
+        return RadiusPacket.parseResponse(reply, reply.length, request, 4, SECRET);
+    }
+
+    @Benchmark
+    public RadiusResponse parsePacket() {
+
+        return packet.parsePacket(packetReply);
+    }
+
+    @Benchmark
+    public int hidePassword() {
+
+        return RadiusPacket.addPassword(passwordBuffer, 20, PASSWORD, SECRET);
+    }
+
+    /**
+     * Build a signed Access-Challenge answering the request.
+     */
+    private static byte[] challenge(byte[] request, int authOffset) throws Exception {
+
+        byte[] message = "CHALLENGE 0123456789ABCDEF".getBytes(StandardCharsets.UTF_8);
+        int length = 20 + 2 + message.length + 2 + 16;
+        byte[] reply = new byte[length];
+        reply[0] = (byte) RadiusResponse.ACCESS_CHALLENGE;
+        reply[1] = request[1];
+        reply[2] = (byte) (length >> 8);
+        reply[3] = (byte) length;
+        System.arraycopy(request, authOffset, reply, 4, 16);
+        int offset = 20;
+        reply[offset++] = 18;
+        reply[offset++] = (byte) (message.length + 2);
+        System.arraycopy(message, 0, reply, offset, message.length);
+        offset += message.length;
+        reply[offset++] = 24;
+        reply[offset++] = 18;
+        System.arraycopy(request, authOffset, reply, offset, 16);
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(reply);
+        md5.update(SECRET);
+        System.arraycopy(md5.digest(), 0, reply, 4, 16);
+        return reply;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.CasqueConfig;
+import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full Radius.sendRequest round trip, encode, send, receive, match and parse, against an
+ * in-process stub server on the loopback interface. Measures the client's own overhead and
+ * how it scales with concurrent logins, e.g.
+ * java -jar benchmarks/target/benchmarks.jar RadiusRoundTripBenchmark -t 16
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RadiusRoundTripBenchmark {
+
+    private static final String SECRET = "benchmark-secret";
+    private static final String UID = "casque-user-0001";
+    private static final String PASSWORD = "FFF 000001casque-user-0001";
+
+    private CasqueStubServer server;
+    private Path confDir;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        server = new CasqueStubServer(SECRET, 1);
+        confDir = Files.createTempDirectory("casque-benchmark");
+        String conf = "casque_secret " + SECRET + "\n"
+                + "casque_address 127.0.0.1\n"
+                + "casque_port " + server.getPort() + "\n"
+                + "socket_pool_size 2\n";
+        Files.write(confDir.resolve("casque.conf"), conf.getBytes(StandardCharsets.UTF_8));
+        System.setProperty("carbon.config.dir.path", confDir.toString());
+        CasqueConfig.get();
+        Radius.open();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+
+        Radius.close();
+        CasqueConfig.stopWatching();
+        server.close();
+        File[] files = confDir.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(confDir);
+    }
+
+    @Benchmark
+    public RadiusResponse sendRequest() throws CasqueException {
+
+        RadiusResponse response = Radius.sendRequest(UID, PASSWORD, null);
+        if (response.getType() != RadiusResponse.ACCESS_CHALLENGE) {
+            throw new IllegalStateException("Unexpected RADIUS response " + response.getError());
+        }
+        return response;
+    }
+}
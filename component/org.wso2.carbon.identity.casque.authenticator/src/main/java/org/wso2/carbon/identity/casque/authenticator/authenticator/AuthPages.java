@@ -17,18 +17,15 @@
  */
 package org.wso2.carbon.identity.casque.authenticator.authenticator;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.RadiusPacket;
 import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
 import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -39,38 +36,40 @@ class AuthPages implements Serializable {
     private static final long serialVersionUID = 4341535155455223655L;
     private static final Log log = LogFactory.getLog(RadiusPacket.class);
 
-    /**
-     * Add the text/html content type to the response and forward to returnResponse()
-     *
-     * @param response Http servlet response
-     * @param data     the content for the HTTP response
-     * @throws IOException :
-     */
-    private void returnHtmlResponse(HttpServletResponse response, String data) throws IOException {
-
-        response.setContentType(CasqueAuthenticatorConstants.CONTENT_TYPE);
-        returnResponse(response, data);
-    }
+    private static final TemplateStore templates = new TemplateStore();
 
     /**
-     * Return the no cache headers and the data as content in the HTTP response.
+     * Return the no cache headers and the challenge page as content in the HTTP response.
+     * The Content-Length is the exact UTF-8 byte length of the page.
      *
-     * @param response Http servlet response.
-     * @param data     the content to return.
+     * @param response       Http servlet response.
+     * @param template       the challenge page template.
+     * @param sessionDataKey sessionDataKey
+     * @param challenge      challenge for QR_Player
      * @throws IOException :
      */
-    private void returnResponse(HttpServletResponse response, String data) throws IOException {
+    private void returnHtmlResponse(HttpServletResponse response, ChallengeTemplate template, String sessionDataKey,
+                                    String challenge) throws IOException {
+
+        byte[] challengeBytes = challenge.getBytes(StandardCharsets.UTF_8);
+        byte[] sessionDataKeyBytes = sessionDataKey.getBytes(StandardCharsets.UTF_8);
+        int length = template.getLength(challengeBytes, sessionDataKeyBytes);
 
+        response.setContentType(CasqueAuthenticatorConstants.CONTENT_TYPE);
         response.addHeader(CasqueAuthenticatorConstants.CACHE_CONTROL, CasqueAuthenticatorConstants.NO_CACHE);
         response.addHeader(CasqueAuthenticatorConstants.PRAGMA, CasqueAuthenticatorConstants.NO_CACHE);
         response.addHeader(CasqueAuthenticatorConstants.EXPIRES, "0");
-        response.setContentLength(data.length());
-        response.getOutputStream().print(data);
+        response.setContentLength(length);
+        if (response.getBufferSize() < length) {
+            response.setBufferSize(length);
+        }
+        template.render(response.getOutputStream(), challengeBytes, sessionDataKeyBytes);
     }
 
     /**
      * Create and Return the CASQUE Challenge HTML page.
-     * Using the qr_player.tmp template file and inserting
+     * Using the qr_player.tmp template, from the template directory
+     * or the bundled one, and inserting
      * the challenge string and the sessionDataKey.
      *
      * @param response       http servlet response
@@ -81,37 +80,18 @@ class AuthPages implements Serializable {
     void challengePage(HttpServletResponse response, String sessionDataKey, String challenge) throws CasqueException {
 
         try {
-            String resource = loadResource(CasqueAuthenticatorConstants.QR_PLAYER);
-            if (StringUtils.isNotEmpty(resource)) {
-                resource = resource.replace(CasqueAuthenticatorConstants.CASQUE_CHALLENGE, challenge);
-                resource = resource.replace(CasqueAuthenticatorConstants.SESSION_DATA_KEY, sessionDataKey);
-                returnHtmlResponse(response, resource);
-            } else {
-                throw new CasqueException("QR player resources are not available.");
-            }
+            returnHtmlResponse(response, templates.get(CasqueAuthenticatorConstants.QR_PLAYER), sessionDataKey,
+                    challenge);
         } catch (IOException e) {
             throw new CasqueException("Failed to load the challenge page.", e);
         }
     }
 
     /**
-     * load a resource from the path specified.
-     *
-     * @param path loadResource path
-     * @throws CasqueException :
+     * Stop watching the template directory.
      */
-    private String loadResource(String path) throws CasqueException {
+    static void close() {
 
-        InputStream input = AuthPages.class.getClassLoader().getResourceAsStream(path);
-        if (input != null) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-                char[] buffer = new char[20000];
-                int len = reader.read(buffer, 0, 20000);
-                return new String(buffer, 0, len);
-            } catch (IOException e) {
-                throw new CasqueException("Failed to load the casque QR player.", e);
-            }
-        }
-        return null;
+        templates.close();
     }
 }
@@ -36,9 +36,12 @@ import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticat
 import org.wso2.carbon.identity.casque.authenticator.authenticator.internal.CasqueAuthenticatorServiceDataHolder;
 import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
 import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.Radius;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.RadiusPacket;
 import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.RadiusResponse;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -53,12 +56,36 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
     private static final long serialVersionUID = 4341535155455223654L;
     private static final Log log = LogFactory.getLog(CasqueAuthenticator.class);
     private static final String CASQUE_SNR_CLAIM = "http://wso2.org/claims/identity/casqueSnrToken";
-    private static final String TOKEN_ID_FORMAT = "^[a-fA-F0-9]{3} [0-9]{6}$";  // e.g. "FFF 000001"
+    private static final Pattern TOKEN_ID_FORMAT = Pattern.compile("^[a-fA-F0-9]{3} [0-9]{6}$");  // e.g. "FFF 000001"
     private static final AuthPages authPages = new AuthPages();
+    // Shared by every instance, the framework may hold a deserialized copy of the authenticator
+    private static final TokenIdCache tokenIdCache = new TokenIdCache();
+    private static final PendingChallengeIndex challengeIndex = new PendingChallengeIndex();
+
+    /**
+     * Get the cache of the users' Token IDs.
+     *
+     * @return the Token ID cache.
+     */
+    public TokenIdCache getTokenIdCache() {
+
+        return tokenIdCache;
+    }
+
+    /**
+     * Release what the authenticator holds when its bundle stops.
+     */
+    public void close() {
+
+        tokenIdCache.clear();
+        challengeIndex.clear();
+        AuthPages.close();
+    }
 
     /**
      * Get the users tokenId from the UserStoreManager.
      * Check the format of the tokenId, 3 hex chars, a space then 6 numeric digits.
+     * A valid tokenId is cached so the next login does not read the user store.
      *
      * @param userName Username of the user
      * @return @return the CASQUE Token ID
@@ -66,10 +93,14 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
      */
     private String getCasqueTokenId(String userName) throws CasqueException {
 
+        int tenantId = IdentityTenantUtil.getTenantIdOfUser(userName);
+        String cachedTokenId = tokenIdCache.get(tenantId, userName);
+        if (cachedTokenId != null) {
+            return cachedTokenId;
+        }
         try {
             UserStoreManager userStoreManager = CasqueAuthenticatorServiceDataHolder.getInstance()
-                    .getRealmService().getTenantUserRealm(IdentityTenantUtil.getTenantIdOfUser(userName))
-                    .getUserStoreManager();
+                    .getRealmService().getTenantUserRealm(tenantId).getUserStoreManager();
 
             // Getting the Token ID assigned to userName
             Map<String, String> tokenIdMap = userStoreManager.getUserClaimValues(userName,
@@ -79,7 +110,8 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
                 throw new CasqueException("Token ID is null for user: " + userName);
             }
             String tokenId = tokenIdMap.get(CASQUE_SNR_CLAIM);
-            if (tokenId.matches(TOKEN_ID_FORMAT)) {
+            if (TOKEN_ID_FORMAT.matcher(tokenId).matches()) {
+                tokenIdCache.put(tenantId, userName, tokenId);
                 return tokenId;
             }
             throw new CasqueException(String.format("%s is a bad formatted Token ID for user : %s", tokenId, userName));
@@ -100,33 +132,45 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
     private AuthenticatorFlowStatus start(HttpServletRequest request, HttpServletResponse response,
                                           AuthenticationContext context) throws AuthenticationFailedException {
 
+        LoginTimer timer = new LoginTimer();
         try {
             String userName = request.getParameter(CasqueAuthenticatorConstants.USER_NAME);
             if (StringUtils.isEmpty(userName)) {
                 throw new CasqueException("userName is null");
             }
 
-            context.setProperty(CasqueAuthenticatorConstants.USER_NAME, userName);
             String tokenId = getCasqueTokenId(userName);
             String tokenIdPlusName = tokenId + userName;
+            timer.end(LoginTimer.TOKEN_LOOKUP);
+            if (!fitsPassword(tokenIdPlusName)) {
+                throw new InvalidCredentialsException(" User authentication failed due to a user name longer than "
+                        + RadiusPacket.MAX_PASSWORD_LENGTH + " bytes", User.getUserFromUserName(userName));
+            }
 
-            context.setProperty(CasqueAuthenticatorConstants.RADIUS_STATE, null);
             // Initial Access Request, fixed user,  token ID + username as the password
             // Send request as Datagram packet
             RadiusResponse radiusResponse = Radius.sendRequest("CASQUE SNR", tokenIdPlusName, null);
             int radiusResponseType = radiusResponse.getType();
+            timer.end(LoginTimer.FIRST_EXCHANGE);
 
             if (radiusResponseType == RadiusResponse.ACCESS_CHALLENGE) { // Got a challenge
-                context.setProperty(CasqueAuthenticatorConstants.RADIUS_STATE, radiusResponse.getState());
                 String challenge = radiusResponse.getChallenge();
                 String contextIdentifier = context.getContextIdentifier();
                 authPages.challengePage(response, contextIdentifier, challenge);
+                timer.end(LoginTimer.CHALLENGE_RENDER);
+                timer.challengeSent();
+                // The state is only known to the server that issued it
+                putPendingChallenge(context, new PendingChallenge(radiusResponse.getState(),
+                        radiusResponse.getServerId(), userName, timer));
                 return AuthenticatorFlowStatus.INCOMPLETE;
             }
 
             clearProperties(context);
+            timer.finish(userName);
 
             if (radiusResponseType == RadiusResponse.ACCESS_REJECT) {
+                // The token may have been reassigned, read it from the user store next time
+                tokenIdCache.invalidate(IdentityTenantUtil.getTenantIdOfUser(userName), userName);
                 throw new InvalidCredentialsException(
                         " User authentication failed due to invalid credentials ", User.getUserFromUserName(userName));
             }
@@ -139,12 +183,96 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
     }
 
     /**
-     * clean up the properties we set: RADIUS_STATE and USER_NAME.
+     * Check a value fits the RADIUS User-Password attribute. Input that can not be sent is
+     * rejected before a packet is built, rather than failing like a server that did not reply.
+     *
+     * @param password the value sent as the User-Password.
+     * @return true if it can be sent.
+     */
+    private static boolean fitsPassword(String password) {
+
+        return password == null || (password.length() <= RadiusPacket.MAX_PASSWORD_LENGTH
+                && password.getBytes(StandardCharsets.UTF_8).length <= RadiusPacket.MAX_PASSWORD_LENGTH);
+    }
+
+    /**
+     * Keep the challenge for its response, on this node if the challenge index is enabled,
+     * otherwise in the context.
+     *
+     * @param context   Authentication context
+     * @param challenge the challenge sent to the user.
+     */
+    private void putPendingChallenge(AuthenticationContext context, PendingChallenge challenge) {
+
+        String contextIdentifier = context.getContextIdentifier();
+        if (contextIdentifier != null && challengeIndex.isEnabled()) {
+            challengeIndex.put(contextIdentifier, challenge);
+            return;
+        }
+        context.setProperty(CasqueAuthenticatorConstants.PENDING_CHALLENGE, challenge);
+    }
+
+    /**
+     * Remove the challenge a request answers, a challenge is only answered once.
+     * Also reads the separate RADIUS_STATE, RADIUS_SERVER, LOGIN_TIMER and USER_NAME properties
+     * an earlier version of the authenticator set, so logins in progress survive an upgrade.
+     *
+     * @param context Authentication context
+     * @return the challenge or null if none is pending.
+     */
+    private PendingChallenge takePendingChallenge(AuthenticationContext context) {
+
+        Object property = context.getProperty(CasqueAuthenticatorConstants.PENDING_CHALLENGE);
+        if (property instanceof PendingChallenge) {
+            clearProperty(context, CasqueAuthenticatorConstants.PENDING_CHALLENGE);
+            return (PendingChallenge) property;
+        }
+        String contextIdentifier = context.getContextIdentifier();
+        if (contextIdentifier != null) {
+            PendingChallenge challenge = challengeIndex.take(contextIdentifier);
+            if (challenge != null) {
+                return challenge;
+            }
+        }
+        Object radiusState = context.getProperty(CasqueAuthenticatorConstants.RADIUS_STATE);
+        if (!(radiusState instanceof byte[])) {
+            return null;
+        }
+        clearProperty(context, CasqueAuthenticatorConstants.RADIUS_STATE);
+        Object timer = context.getProperty(CasqueAuthenticatorConstants.LOGIN_TIMER);
+        return new PendingChallenge((byte[]) radiusState,
+                stringProperty(context, CasqueAuthenticatorConstants.RADIUS_SERVER),
+                stringProperty(context, CasqueAuthenticatorConstants.USER_NAME),
+                timer instanceof LoginTimer ? (LoginTimer) timer : null);
+    }
+
+    private static String stringProperty(AuthenticationContext context, String key) {
+
+        Object value = context.getProperty(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Clear a property if it is set, without adding an entry for every property to the context.
+     */
+    private static void clearProperty(AuthenticationContext context, String key) {
+
+        if (context.getProperty(key) != null) {
+            context.setProperty(key, null);
+        }
+    }
+
+    /**
+     * clean up the properties we set: PENDING_CHALLENGE, and RADIUS_STATE, RADIUS_SERVER,
+     * LOGIN_TIMER and USER_NAME if set by an earlier version.
      */
     private void clearProperties(AuthenticationContext context) {
 
-        context.setProperty(CasqueAuthenticatorConstants.RADIUS_STATE, null);
-        context.setProperty(CasqueAuthenticatorConstants.USER_NAME, null);
+        clearProperty(context, CasqueAuthenticatorConstants.PENDING_CHALLENGE);
+        clearProperty(context, CasqueAuthenticatorConstants.RADIUS_STATE);
+        clearProperty(context, CasqueAuthenticatorConstants.RADIUS_SERVER);
+        clearProperty(context, CasqueAuthenticatorConstants.LOGIN_TIMER);
+        clearProperty(context, CasqueAuthenticatorConstants.USER_NAME);
     }
 
     @Override
@@ -162,9 +290,9 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
             }
             return AuthenticatorFlowStatus.SUCCESS_COMPLETED;
         }
-        byte[] radiusState = (byte[]) context.getProperty(CasqueAuthenticatorConstants.RADIUS_STATE);
+        PendingChallenge pendingChallenge = takePendingChallenge(context);
 
-        if (radiusState == null) { // Initial request, get a challenge
+        if (pendingChallenge == null) { // Initial request, get a challenge
             AuthenticatorFlowStatus status = null;
             try {
                 status = start(request, response, context);
@@ -174,28 +302,44 @@ public class CasqueAuthenticator extends AbstractApplicationAuthenticator implem
             context.setCurrentAuthenticator(getName());
             return status;
         }
-        // radiusState is not null so handle the response to the challenge
-        context.setProperty(CasqueAuthenticatorConstants.RADIUS_STATE, null);
+        // A challenge is pending so handle the response to it
 
         String action = request.getParameter(CasqueAuthenticatorConstants.BTN_ACTION);
         if (StringUtils.isNotEmpty(action) && CasqueAuthenticatorConstants.LOGIN.equals(action)) { // action can be null, LOGIN or Cancel
 
-            String userName = (String) context.getProperty(CasqueAuthenticatorConstants.USER_NAME);
+            String userName = pendingChallenge.getUserName();
             String challengeResponse = request.getParameter(CasqueAuthenticatorConstants.RESPONSE);
+            LoginTimer timer = pendingChallenge.getTimer();
+            if (timer != null) {
+                timer.responseReceived();
+            } else {
+                timer = new LoginTimer();
+            }
+            if (!fitsPassword(challengeResponse)) {
+                clearProperties(context);
+                throw new InvalidCredentialsException("User authentication failed due to a response longer than "
+                        + RadiusPacket.MAX_PASSWORD_LENGTH + " bytes", User.getUserFromUserName(userName));
+            }
             try {
-                // Send the response to the CASQUE Server
-                RadiusResponse radiusResponse = Radius.sendRequest(userName, challengeResponse, radiusState);
+                // Send the response to the CASQUE Server that issued the challenge
+                RadiusResponse radiusResponse = Radius.sendRequest(userName, challengeResponse,
+                        pendingChallenge.getState(), pendingChallenge.getServerId());
                 int radiusResponseType = radiusResponse.getType();
+                timer.end(LoginTimer.VERIFICATION);
 
                 if (radiusResponseType == RadiusResponse.ACCESS_CHALLENGE) { // Another challenge.
-                    context.setProperty(CasqueAuthenticatorConstants.RADIUS_STATE, radiusResponse.getState());
                     String challenge = radiusResponse.getChallenge();
                     String contextIdentifier = context.getContextIdentifier();
                     authPages.challengePage(response, contextIdentifier, challenge);
+                    timer.end(LoginTimer.CHALLENGE_RENDER);
+                    timer.challengeSent();
+                    putPendingChallenge(context, new PendingChallenge(radiusResponse.getState(),
+                            radiusResponse.getServerId(), userName, timer));
                     return AuthenticatorFlowStatus.INCOMPLETE;
                 }
 
                 clearProperties(context);
+                timer.finish(userName);
 
                 if (radiusResponseType == RadiusResponse.ACCESS_ACCEPT) { // Authentication Pass.
                     context.setSubject(AuthenticatedUser.createLocalAuthenticatedUserFromSubjectIdentifier(userName));
@@ -17,75 +17,594 @@
  */
 package org.wso2.carbon.identity.casque.authenticator.authenticator;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.CasqueServer;
 import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
 import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
 import org.wso2.carbon.utils.CarbonUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.InetAddress;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * CASQUE SNR Authenticator Configuration
+ * An immutable snapshot of casque.conf. The current snapshot is published through an atomic
+ * reference and replaced as a whole when casque.conf changes, so a login that has taken a
+ * snapshot keeps using it to the end while new logins see the new settings.
  */
 public class CasqueConfig {
 
-    public static byte[] radiusSecret = null;      /* Shared secret between the authenticator and the CASQUE Server. */
-    public static InetAddress casqueAddress = null;/* IP Address of the CASQUE SNR Server. */
-    public static int casquePort = 0;              /* Port used by the CASQUE SNR Server. */
-    public static int localPort = 0;               /* Port for the CasqueAuthenticator to use. */
-    private static boolean configLoaded = false;   /* True if the configuration has been loaded. */
+    private static final Log log = LogFactory.getLog(CasqueConfig.class);
+    private static final CasqueConfig DEFAULTS = new CasqueConfig("");
+    private static final AtomicReference<CasqueConfig> current = new AtomicReference<>();
+    private static WatchService watchService = null;
+
+    private final String text;                    /* The casque.conf text this snapshot was parsed from. */
+    private byte[] radiusSecret = null;           /* Shared secret between the authenticator and the CASQUE Server. */
+    private InetAddress casqueAddress = null;     /* IP Address of the CASQUE SNR Server. */
+    private String casqueHost = null;             /* Configured host name of the CASQUE SNR Server. */
+    private int casquePort = 0;                   /* Port used by the CASQUE SNR Server. */
+    private final List<CasqueServer> casqueServers = new ArrayList<>(); /* Additional CASQUE SNR Servers. */
+    private String serverSelection = CasqueAuthenticatorConstants.WEIGHTED_ROUND_ROBIN; /* How a server is picked. */
+    private int serverFailureThreshold = 3;       /* Failed requests in a row that open a server's circuit. */
+    private long serverRetryInterval = 30000;     /* Milliseconds a server's circuit stays open. */
+    private int serverProbeRequests = 1;          /* Requests let through while a circuit is half open. */
+    private int retryTries = 3;                   /* Times a request is sent before giving up. */
+    private long retryInitialTimeout = 1000;      /* Reply timeout in milliseconds before a server is measured. */
+    private long retryMinTimeout = 250;           /* Lower bound of the adaptive reply timeout in milliseconds. */
+    private long retryMaxTimeout = 5000;          /* Upper bound of the adaptive reply timeout and backoff. */
+    private int localPort = 0;                    /* Port for the CasqueAuthenticator to use. */
+    private int localPortMax = 0;                 /* Last port of the local port range, 0 if no range. */
+    private int socketPoolSize = 1;               /* Number of local ports to send requests from. */
+    private int socketPoolMax = 16;               /* Ports that may be open when all Identifiers are in use. */
+    private int receiveThreads = 0;               /* Selector threads reading the ports, 0 for one per core. */
+    private String templateDir = null;            /* Directory of the challenge page templates. */
+    private long tokenCacheTtl = 300000;          /* Milliseconds a user's Token ID is cached, 0 to disable. */
+    private int tokenCacheSize = 10000;           /* Users whose Token ID may be cached. */
+    private long challengeIndexTtl = 300000;      /* Milliseconds a challenge is kept on this node for its response. */
+    private int challengeIndexSize = 0;           /* Challenges kept on this node, 0 to keep them in the context. */
+    private long dnsTtl = 60000;                  /* Milliseconds between lookups of the server host names, 0 never. */
+    private long slowLoginThreshold = 0;          /* Milliseconds of server time above which a login is logged. */
+    private String warmupUser = null;             /* User name of the probe sent to each server at startup. */
+
+    /**
+     * Constructor
+     * The fields are only set by parse(), before the snapshot is published.
+     *
+     * @param text the casque.conf text.
+     */
+    private CasqueConfig(String text) {
+
+        this.text = text;
+    }
+
+    /**
+     * Parse a configuration.
+     *
+     * @param text the casque.conf text.
+     * @return the configuration snapshot.
+     * @throws CasqueException if a line can not be parsed.
+     */
+    public static CasqueConfig parse(String text) throws CasqueException {
+
+        CasqueConfig config = new CasqueConfig(text);
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                try {
+                    config.parseLine(line);
+                } catch (IOException | RuntimeException e) {
+                    throw new CasqueException("Invalid casque.conf line " + lineNumber + ": " + line.trim(), e);
+                }
+            }
+        } catch (IOException e) {
+            throw new CasqueException(" Failed to load casque.conf file ", e);
+        }
+        return config;
+    }
+
+    /**
+     * Check that the configuration can be used to reach a CASQUE SNR Server.
+     * Every problem found is reported, not just the first.
+     *
+     * @throws CasqueException if the configuration is not usable.
+     */
+    public void validate() throws CasqueException {
+
+        List<String> errors = new ArrayList<>();
+        if (radiusSecret == null || radiusSecret.length == 0) {
+            errors.add(CasqueAuthenticatorConstants.CONF_CASQUE_SECRET + " is not set");
+        }
+        List<CasqueServer> servers = getServers();
+        if (servers.isEmpty()) {
+            errors.add("no CASQUE SNR Server is set, use " + CasqueAuthenticatorConstants.CONF_CASQUE_ADDRESS
+                    + " or " + CasqueAuthenticatorConstants.CONF_CASQUE_SERVER);
+        }
+        for (CasqueServer server : servers) {
+            if (server.getAddress().getPort() <= 0) {
+                errors.add("CASQUE SNR Server " + server + " needs a port");
+            }
+        }
+        if (!CasqueAuthenticatorConstants.WEIGHTED_ROUND_ROBIN.equals(serverSelection)
+                && !CasqueAuthenticatorConstants.LEAST_LATENCY.equals(serverSelection)) {
+            errors.add(CasqueAuthenticatorConstants.CONF_SERVER_SELECTION + " " + serverSelection + " is unknown");
+        }
+        if (localPort < 0 || localPort > 65535 || localPortMax < 0 || localPortMax > 65535
+                || (localPortMax > 0 && localPortMax < localPort)) {
+            errors.add("the local port or " + CasqueAuthenticatorConstants.CONF_LOCAL_PORT_RANGE + " is invalid");
+        }
+        if (retryTries < 1) {
+            errors.add(CasqueAuthenticatorConstants.CONF_RETRY_TRIES + " must be at least 1");
+        }
+        if (retryMinTimeout <= 0 || retryInitialTimeout <= 0 || retryMaxTimeout < retryMinTimeout) {
+            errors.add("the retry timeouts must be positive and " + CasqueAuthenticatorConstants.CONF_RETRY_MIN_TIMEOUT
+                    + " no more than " + CasqueAuthenticatorConstants.CONF_RETRY_MAX_TIMEOUT);
+        }
+        if (!errors.isEmpty()) {
+            throw new CasqueException("Invalid casque.conf, " + String.join(", ", errors));
+        }
+    }
 
     /**
      * Parse a configuration line
+     * Each line is a parameter name followed by its value.
      *
      * @param line the line to parse
      * @throws IOException
      */
-    private static void parseLine(String line) throws IOException {
+    private void parseLine(String line) throws IOException {
 
-        if (line.startsWith(CasqueAuthenticatorConstants.HASH)) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith(CasqueAuthenticatorConstants.HASH)) {
             return;
-        } else if (line.startsWith(CasqueAuthenticatorConstants.CONF_CASQUE_SECRET)) {
-            radiusSecret = line.substring(CasqueAuthenticatorConstants.CONF_CASQUE_SECRET.length()).trim().getBytes();
-        } else if (line.startsWith(CasqueAuthenticatorConstants.CONF_CASQUE_ADDRESS)) {
-            String server = line.substring(CasqueAuthenticatorConstants.CONF_CASQUE_ADDRESS.length()).trim();
-            casqueAddress = InetAddress.getByName(server);
-        } else if (line.startsWith(CasqueAuthenticatorConstants.CONF_CASQUE_PORT)) {
-            String port = line.substring(CasqueAuthenticatorConstants.CONF_CASQUE_PORT.length()).trim();
-            casquePort = Integer.parseInt(port);
-        } else if (line.startsWith(CasqueAuthenticatorConstants.CONF_LOCAL_PORT)) {
-            String port = line.substring(CasqueAuthenticatorConstants.CONF_LOCAL_PORT.length()).trim();
-            localPort = Integer.parseInt(port);
+        }
+        String[] nameValue = line.split("\\s+", 2);
+        if (nameValue.length < 2) {
+            return;
+        }
+        String value = nameValue[1].trim();
+        switch (nameValue[0]) {
+            case CasqueAuthenticatorConstants.CONF_CASQUE_SECRET:
+                radiusSecret = value.getBytes();
+                break;
+            case CasqueAuthenticatorConstants.CONF_CASQUE_ADDRESS:
+                casqueHost = value;
+                casqueAddress = InetAddress.getByName(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_CASQUE_PORT:
+                casquePort = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_CASQUE_SERVER:
+                String[] server = value.split("\\s+");
+                int weight = server.length > 2 ? Integer.parseInt(server[2]) : 1;
+                if (weight < 1) {
+                    throw new IllegalArgumentException("the server weight must be positive");
+                }
+                casqueServers.add(new CasqueServer(server[0], InetAddress.getByName(server[0]),
+                        Integer.parseInt(server[1]), weight));
+                break;
+            case CasqueAuthenticatorConstants.CONF_SERVER_SELECTION:
+                serverSelection = value;
+                break;
+            case CasqueAuthenticatorConstants.CONF_SERVER_FAILURE_THRESHOLD:
+                serverFailureThreshold = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_SERVER_RETRY_INTERVAL:
+                serverRetryInterval = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_SERVER_PROBE_REQUESTS:
+                serverProbeRequests = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_RETRY_TRIES:
+                retryTries = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_RETRY_INITIAL_TIMEOUT:
+                retryInitialTimeout = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_RETRY_MIN_TIMEOUT:
+                retryMinTimeout = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_RETRY_MAX_TIMEOUT:
+                retryMaxTimeout = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_LOCAL_PORT:
+                localPort = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_LOCAL_PORT_RANGE:
+                String[] range = value.split("-");
+                localPort = Integer.parseInt(range[0].trim());
+                localPortMax = Integer.parseInt(range[range.length - 1].trim());
+                break;
+            case CasqueAuthenticatorConstants.CONF_SOCKET_POOL_SIZE:
+                socketPoolSize = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_SOCKET_POOL_MAX:
+                socketPoolMax = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_RECEIVE_THREADS:
+                receiveThreads = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_TEMPLATE_DIR:
+                templateDir = value;
+                break;
+            case CasqueAuthenticatorConstants.CONF_TOKEN_CACHE_TTL:
+                tokenCacheTtl = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_TOKEN_CACHE_SIZE:
+                tokenCacheSize = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_CHALLENGE_INDEX_TTL:
+                challengeIndexTtl = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_CHALLENGE_INDEX_SIZE:
+                challengeIndexSize = Integer.parseInt(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_DNS_TTL:
+                dnsTtl = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_SLOW_LOGIN_THRESHOLD:
+                slowLoginThreshold = Long.parseLong(value);
+                break;
+            case CasqueAuthenticatorConstants.CONF_WARMUP_USER:
+                warmupUser = value;
+                break;
+            default:
+                break;
         }
     }
 
     /**
-     * Load the Configuration file, casque.conf
+     * Get the current configuration, loading casque.conf the first time.
      *
-     * @throws CasqueException
+     * @return the current configuration snapshot.
+     * @throws CasqueException if casque.conf can not be loaded.
      */
-    public static void loadConfig() throws CasqueException {
+    public static CasqueConfig get() throws CasqueException {
+
+        CasqueConfig config = current.get();
+        if (config == null) {
+            loadConfig();
+            config = current.get();
+        }
+        return config;
+    }
+
+    /**
+     * Get the current configuration without loading it.
+     *
+     * @return the current configuration snapshot, or the defaults if casque.conf has not been loaded.
+     */
+    public static CasqueConfig current() {
 
-        if (!configLoaded) {
-            File casqueConf = new File(CarbonUtils.getCarbonConfigDirPath() + File.separator
-                    + CasqueAuthenticatorConstants.CONF_FILE);
+        CasqueConfig config = current.get();
+        return config == null ? DEFAULTS : config;
+    }
 
-            try (InputStream input = new FileInputStream(casqueConf);
-                 BufferedReader bufferedInput = new BufferedReader(new InputStreamReader(input))
-            ) {
-                String line;
-                while ((line = bufferedInput.readLine()) != null) {
-                    parseLine(line);
+    /**
+     * Publish a configuration snapshot.
+     *
+     * @param config the configuration.
+     */
+    static void set(CasqueConfig config) {
+
+        current.set(config);
+    }
+
+    /**
+     * Load the Configuration file, casque.conf, if it has not been loaded,
+     * and start watching it for changes.
+     *
+     * @throws CasqueException if casque.conf can not be loaded.
+     */
+    public static void loadConfig() throws CasqueException {
+
+        if (current.get() == null) {
+            synchronized (CasqueConfig.class) {
+                if (current.get() == null) {
+                    // Watch first, so a file that fails to load is picked up once it is fixed
+                    watch();
+                    CasqueConfig config = parse(readConfFile());
+                    config.validate();
+                    current.set(config);
                 }
-                configLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * Read casque.conf again and publish it if it has changed.
+     * If the new file can not be parsed the current configuration is kept.
+     *
+     * @return true if a new configuration was published.
+     */
+    public static boolean reload() {
+
+        try {
+            String text = readConfFile();
+            CasqueConfig previous = current.get();
+            if (previous != null && previous.text.equals(text)) {
+                return false;
+            }
+            CasqueConfig config = parse(text);
+            config.validate();
+            if (current.compareAndSet(previous, config)) {
+                log.info("Reloaded " + CasqueAuthenticatorConstants.CONF_FILE);
+                return true;
+            }
+        } catch (CasqueException e) {
+            log.error("Keeping the current configuration, " + e.getMessage(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Stop watching casque.conf and drop the loaded configuration.
+     * It is loaded again on next use.
+     */
+    public static synchronized void stopWatching() {
+
+        if (watchService != null) {
+            try {
+                watchService.close();
             } catch (IOException e) {
-                throw new CasqueException(" Failed to load casque.conf file ", e);
+                log.error("Error closing the casque.conf watcher", e);
             }
+            watchService = null;
+        }
+        current.set(null);
+    }
+
+    private static File getConfFile() {
+
+        return new File(CarbonUtils.getCarbonConfigDirPath() + File.separator
+                + CasqueAuthenticatorConstants.CONF_FILE);
+    }
+
+    private static String readConfFile() throws CasqueException {
+
+        try {
+            return new String(Files.readAllBytes(getConfFile().toPath()));
+        } catch (IOException e) {
+            throw new CasqueException(" Failed to load casque.conf file ", e);
+        }
+    }
+
+    /**
+     * Start a daemon thread reloading casque.conf when it changes.
+     */
+    private static synchronized void watch() {
+
+        if (watchService != null) {
+            return;
+        }
+        Path dir = getConfFile().getAbsoluteFile().getParentFile().toPath();
+        try {
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchService = service;
+            Thread thread = new Thread(() -> poll(service), "CASQUE-Config-Watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            log.error("Error watching " + dir + ", casque.conf changes need a restart", e);
+        }
+    }
+
+    private static void poll(WatchService service) {
+
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || CasqueAuthenticatorConstants.CONF_FILE.equals(event.context().toString())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    reload();
+                }
+                if (!key.reset()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed, stop watching
+        }
+    }
+
+    /**
+     * Get the shared secret.
+     * The array belongs to the snapshot and must not be modified.
+     *
+     * @return the shared secret.
+     */
+    public byte[] getRadiusSecret() {
+
+        return radiusSecret;
+    }
+
+    /**
+     * Get the CASQUE SNR Servers.
+     * The server set by casque_address and casque_port, followed by any casque_server entries.
+     *
+     * @return the configured servers.
+     */
+    public List<CasqueServer> getServers() {
+
+        List<CasqueServer> servers = new ArrayList<>();
+        if (casqueAddress != null) {
+            servers.add(new CasqueServer(casqueHost, casqueAddress, casquePort, 1));
+        }
+        servers.addAll(casqueServers);
+        return Collections.unmodifiableList(servers);
+    }
+
+    public String getServerSelection() {
+
+        return serverSelection;
+    }
+
+    public int getServerFailureThreshold() {
+
+        return serverFailureThreshold;
+    }
+
+    public long getServerRetryInterval() {
+
+        return serverRetryInterval;
+    }
+
+    public int getServerProbeRequests() {
+
+        return serverProbeRequests;
+    }
+
+    public int getRetryTries() {
+
+        return retryTries;
+    }
+
+    public long getRetryInitialTimeout() {
+
+        return retryInitialTimeout;
+    }
+
+    public long getRetryMinTimeout() {
+
+        return retryMinTimeout;
+    }
+
+    public long getRetryMaxTimeout() {
+
+        return retryMaxTimeout;
+    }
+
+    public int getSocketPoolMax() {
+
+        return socketPoolMax;
+    }
+
+    public long getTokenCacheTtl() {
+
+        return tokenCacheTtl;
+    }
+
+    public int getTokenCacheSize() {
+
+        return tokenCacheSize;
+    }
+
+    public long getChallengeIndexTtl() {
+
+        return challengeIndexTtl;
+    }
+
+    public int getChallengeIndexSize() {
+
+        return challengeIndexSize;
+    }
+
+    /**
+     * Get the local ports of the socket pool.
+     * Every port of the port range if one is configured, otherwise socket_pool_size ports
+     * where the first is bound to the configured port and the rest are ephemeral.
+     *
+     * @return the local ports, 0 for an ephemeral port.
+     */
+    public int[] getLocalPorts() {
+
+        if (localPortMax > 0) {
+            int[] ports = new int[Math.max(1, localPortMax - localPort + 1)];
+            for (int i = 0; i < ports.length; i++) {
+                ports[i] = localPort + i;
+            }
+            return ports;
+        }
+        int[] ports = new int[Math.max(1, socketPoolSize)];
+        ports[0] = localPort;
+        return ports;
+    }
+
+    /**
+     * Get the number of selector threads to read the socket pool.
+     *
+     * @return receive_threads if set, otherwise one per core.
+     */
+    public int getReceiveThreads() {
+
+        if (receiveThreads > 0) {
+            return receiveThreads;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Get how often the server host names are looked up again.
+     *
+     * @return milliseconds between lookups, 0 to resolve them only when casque.conf is loaded.
+     */
+    public long getDnsTtl() {
+
+        return dnsTtl;
+    }
+
+
+    /**
+     * Get the server side time above which a login is logged with its phase timings.
+     *
+     * @return milliseconds, 0 if no login is logged.
+     */
+    public long getSlowLoginThreshold() {
+
+        return slowLoginThreshold;
+    }
+
+    /**
+     * Get the user name of the probe sent to each server when the authenticator starts.
+     *
+     * @return the user name, null if no probe is sent.
+     */
+    public String getWarmupUser() {
+
+        return warmupUser;
+    }
+
+    /**
+     * Get the directory of the challenge page templates.
+     * template_dir if set, a relative path being taken from the directory holding casque.conf,
+     * otherwise the casque directory next to casque.conf.
+     *
+     * @return the template directory.
+     */
+    public File getTemplateDir() {
+
+        File confDir = new File(CarbonUtils.getCarbonConfigDirPath());
+        if (templateDir == null) {
+            return new File(confDir, CasqueAuthenticatorConstants.TEMPLATE_DIR);
         }
+        File dir = new File(templateDir);
+        return dir.isAbsolute() ? dir : new File(confDir, templateDir);
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A challenge page template parsed into literal segments and placeholder slots.
+ * The template is parsed once and the literal segments are kept UTF-8 encoded,
+ * so only the challenge and sessionDataKey are encoded for each page.
+ */
+final class ChallengeTemplate {
+
+    private static final int CHALLENGE = 0;
+    private static final int SESSION_DATA_KEY = 1;
+    private static final String[] PLACEHOLDERS = {CasqueAuthenticatorConstants.CASQUE_CHALLENGE,
+            CasqueAuthenticatorConstants.SESSION_DATA_KEY};
+
+    private final byte[][] literals;
+    private final int[] slots;
+    private final int literalLength;
+
+    private ChallengeTemplate(List<String> literals, int[] slots) {
+
+        this.literals = new byte[literals.size()][];
+        this.slots = slots;
+        int length = 0;
+        for (int i = 0; i < this.literals.length; i++) {
+            this.literals[i] = literals.get(i).getBytes(StandardCharsets.UTF_8);
+            length += this.literals[i].length;
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parse a template.
+     * Splits the text at each <%CASQUE_CHALLENGE%> and <%sessionDataKey%> placeholder.
+     *
+     * @param template the template text.
+     * @return the parsed template.
+     */
+    static ChallengeTemplate parse(String template) {
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int offset = 0;
+        while (true) {
+            int next = -1;
+            int slot = -1;
+            for (int i = 0; i < PLACEHOLDERS.length; i++) {
+                int index = template.indexOf(PLACEHOLDERS[i], offset);
+                if (index >= 0 && (next < 0 || index < next)) {
+                    next = index;
+                    slot = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            literals.add(template.substring(offset, next));
+            slots.add(slot);
+            offset = next + PLACEHOLDERS[slot].length();
+        }
+        literals.add(template.substring(offset));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new ChallengeTemplate(literals, slotArray);
+    }
+
+    /**
+     * Get the length in bytes of the page with the values in their slots.
+     *
+     * @param challenge      the UTF-8 encoded challenge.
+     * @param sessionDataKey the UTF-8 encoded sessionDataKey.
+     * @return the page length in bytes.
+     */
+    int getLength(byte[] challenge, byte[] sessionDataKey) {
+
+        int length = literalLength;
+        for (int slot : slots) {
+            length += (slot == CHALLENGE ? challenge : sessionDataKey).length;
+        }
+        return length;
+    }
+
+    /**
+     * Write the page with the values in their slots and flush it.
+     * The segments are written one after the other into the stream's buffer,
+     * which the caller sizes to hold the whole page, so it goes out in one flush.
+     *
+     * @param out            the output stream.
+     * @param challenge      the UTF-8 encoded challenge.
+     * @param sessionDataKey the UTF-8 encoded sessionDataKey.
+     * @throws IOException if the page can not be written.
+     */
+    void render(OutputStream out, byte[] challenge, byte[] sessionDataKey) throws IOException {
+
+        for (int i = 0; i < slots.length; i++) {
+            out.write(literals[i]);
+            out.write(slots[i] == CHALLENGE ? challenge : sessionDataKey);
+        }
+        out.write(literals[slots.length]);
+        out.flush();
+    }
+}
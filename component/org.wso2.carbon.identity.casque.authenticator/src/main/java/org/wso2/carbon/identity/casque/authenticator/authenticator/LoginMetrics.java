@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.LatencyHistogram;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.LatencySnapshot;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timings of the login phases, exposed over JMX.
+ */
+public class LoginMetrics implements LoginMetricsMXBean {
+
+    private static final Log log = LogFactory.getLog(LoginMetrics.class);
+    public static final String OBJECT_NAME = "org.wso2.carbon.identity.casque:type=LoginMetrics";
+    private static final LoginMetrics INSTANCE = new LoginMetrics();
+
+    private volatile Counters counters = new Counters();
+
+    private LoginMetrics() {
+
+    }
+
+    /**
+     * Get the login metrics.
+     *
+     * @return the metrics.
+     */
+    public static LoginMetrics get() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server.
+     */
+    public static void register() {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            log.error("Error registering the CASQUE login metrics MBean", e);
+        }
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server.
+     */
+    public static void unregister() {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.error("Error unregistering the CASQUE login metrics MBean", e);
+        }
+    }
+
+    void phaseCompleted(int phase, long nanos) {
+
+        counters.phases[phase].record(nanos);
+    }
+
+    void loginCompleted(long serverNanos) {
+
+        Counters current = counters;
+        current.logins.increment();
+        current.serverTime.record(serverNanos);
+    }
+
+    void slowLogin() {
+
+        counters.slowLogins.increment();
+    }
+
+    @Override
+    public long getLogins() {
+
+        return counters.logins.sum();
+    }
+
+    @Override
+    public long getSlowLogins() {
+
+        return counters.slowLogins.sum();
+    }
+
+    @Override
+    public LatencySnapshot getServerTime() {
+
+        return counters.serverTime.snapshot();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getPhases() {
+
+        Counters current = counters;
+        Map<String, LatencySnapshot> phases = new LinkedHashMap<>();
+        for (int phase = 0; phase < LoginTimer.PHASES.length; phase++) {
+            phases.put(LoginTimer.PHASES[phase], current.phases[phase].snapshot());
+        }
+        return phases;
+    }
+
+    @Override
+    public void reset() {
+
+        counters = new Counters();
+    }
+
+    /**
+     * The counters cleared by reset().
+     */
+    private static class Counters {
+
+        private final LongAdder logins = new LongAdder();
+        private final LongAdder slowLogins = new LongAdder();
+        private final LatencyHistogram serverTime = new LatencyHistogram();
+        private final LatencyHistogram[] phases = new LatencyHistogram[LoginTimer.PHASES.length];
+
+        Counters() {
+
+            for (int phase = 0; phase < phases.length; phase++) {
+                phases[phase] = new LatencyHistogram();
+            }
+        }
+    }
+}
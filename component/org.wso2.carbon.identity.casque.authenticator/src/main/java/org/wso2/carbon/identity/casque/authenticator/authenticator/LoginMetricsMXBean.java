@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.LatencySnapshot;
+
+import java.util.Map;
+
+/**
+ * Management interface of the login phase timings.
+ * Registered as org.wso2.carbon.identity.casque:type=LoginMetrics.
+ */
+public interface LoginMetricsMXBean {
+
+    /**
+     * @return logins that passed or failed after reaching the CASQUE SNR Server.
+     */
+    long getLogins();
+
+    /**
+     * @return logins whose server side time was over slow_login_threshold.
+     */
+    long getSlowLogins();
+
+    /**
+     * @return the server side time of each login, every phase but the user's response.
+     */
+    LatencySnapshot getServerTime();
+
+    /**
+     * @return latency by phase: token_lookup, first_exchange, challenge_render, user_response
+     * and verification.
+     */
+    Map<String, LatencySnapshot> getPhases();
+
+    /**
+     * Clear the counters and histograms.
+     */
+    void reset();
+}
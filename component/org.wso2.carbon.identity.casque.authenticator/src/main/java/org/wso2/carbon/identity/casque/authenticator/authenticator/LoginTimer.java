@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Times the phases of one login as it goes through the authenticator.
+ * Kept in the authentication context between the challenge page and the response, so it
+ * is serializable. The time the user takes to respond is measured by the wall clock as the
+ * response may arrive on another node. A PendingChallenge carries it in a compact form,
+ * see write().
+ */
+class LoginTimer implements Serializable {
+
+    private static final long serialVersionUID = 4341535155455223610L;
+    private static final Log log = LogFactory.getLog(LoginTimer.class);
+    static final int TOKEN_LOOKUP = 0;
+    static final int FIRST_EXCHANGE = 1;
+    static final int CHALLENGE_RENDER = 2;
+    static final int USER_RESPONSE = 3;
+    static final int VERIFICATION = 4;
+    static final String[] PHASES = {"token_lookup", "first_exchange", "challenge_render", "user_response",
+            "verification"};
+
+    private final long[] phaseNanos = new long[PHASES.length];
+    private long challengeSentAt = 0;             /* Wall clock time the last challenge page was sent. */
+    private transient long mark = System.nanoTime();
+
+    /**
+     * End a phase, the next phase starts now.
+     *
+     * @param phase the phase that has ended.
+     */
+    void end(int phase) {
+
+        long now = System.nanoTime();
+        record(phase, now - mark);
+        mark = now;
+    }
+
+    /**
+     * The challenge page has been sent, the user's turn starts.
+     */
+    void challengeSent() {
+
+        challengeSentAt = System.currentTimeMillis();
+    }
+
+    /**
+     * The response to the challenge has arrived, the user's turn ends.
+     */
+    void responseReceived() {
+
+        if (challengeSentAt > 0) {
+            record(USER_RESPONSE, Math.max(0, System.currentTimeMillis() - challengeSentAt) * 1000000L);
+            challengeSentAt = 0;
+        }
+        mark = System.nanoTime();
+    }
+
+    /**
+     * The login has passed or failed. Record its server side time, the phases other than
+     * the user's, and log the breakdown if it is over slow_login_threshold.
+     *
+     * @param userName the user logging in.
+     */
+    void finish(String userName) {
+
+        long serverNanos = 0;
+        for (int phase = 0; phase < phaseNanos.length; phase++) {
+            if (phase != USER_RESPONSE) {
+                serverNanos += phaseNanos[phase];
+            }
+        }
+        LoginMetrics.get().loginCompleted(serverNanos);
+        long threshold = CasqueConfig.current().getSlowLoginThreshold();
+        if (threshold > 0 && serverNanos / 1000000L >= threshold) {
+            LoginMetrics.get().slowLogin();
+            log.warn("Slow CASQUE login for user " + userName + ", " + serverNanos / 1000000L + " ms: "
+                    + toString());
+        }
+    }
+
+    long getPhaseNanos(int phase) {
+
+        return phaseNanos[phase];
+    }
+
+    /**
+     * Write the phase times and the time the challenge was sent, relative to a time the
+     * reader also knows, as variable length integers.
+     *
+     * @param out  where to write.
+     * @param base wall clock time close to when the challenge was sent.
+     * @throws IOException if the output fails.
+     */
+    void write(DataOutput out, long base) throws IOException {
+
+        for (long nanos : phaseNanos) {
+            PendingChallenge.writeVarLong(out, nanos);
+        }
+        if (challengeSentAt == 0) {
+            PendingChallenge.writeVarLong(out, 0);
+        } else {
+            long delta = challengeSentAt - base;
+            PendingChallenge.writeVarLong(out, ((delta << 1) ^ (delta >> 63)) + 1);   // Zig-zag, may be negative
+        }
+    }
+
+    /**
+     * Read a timer written by write(), its next phase starts now.
+     *
+     * @param in   where to read.
+     * @param base the time given to write().
+     * @return the timer.
+     * @throws IOException if the input fails.
+     */
+    static LoginTimer read(DataInput in, long base) throws IOException {
+
+        LoginTimer timer = new LoginTimer();
+        for (int phase = 0; phase < timer.phaseNanos.length; phase++) {
+            timer.phaseNanos[phase] = PendingChallenge.readVarLong(in);
+        }
+        long zigZag = PendingChallenge.readVarLong(in) - 1;
+        if (zigZag >= 0) {
+            timer.challengeSentAt = base + ((zigZag >>> 1) ^ -(zigZag & 1));
+        }
+        return timer;
+    }
+
+    private void record(int phase, long nanos) {
+
+        phaseNanos[phase] += nanos;
+        LoginMetrics.get().phaseCompleted(phase, nanos);
+    }
+
+    /**
+     * @return the time spent in each phase, in milliseconds.
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            if (phase > 0) {
+                builder.append(' ');
+            }
+            builder.append(PHASES[phase]).append('=').append(phaseNanos[phase] / 1000000L).append("ms");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A challenge sent to the user and waiting for their response.
+ * Holds everything the response needs: the RADIUS State, the server that issued it, the user
+ * and the login's timer. It is the one property the authenticator keeps in the authentication
+ * context, which may be replicated to every node, so it writes itself in a compact form,
+ * lengths and times as variable length integers, rather than as separately serialized objects.
+ */
+public class PendingChallenge implements Externalizable {
+
+    private static final long serialVersionUID = 4341535155455223611L;
+    private static final int VERSION = 1;
+    private static final int MAX_FIELD_LENGTH = 4096;     /* No field is longer than a RADIUS packet. */
+
+    private byte[] state;
+    private String serverId;
+    private String userName;
+    private long issuedAt;                        /* Wall clock time the challenge was received. */
+    private LoginTimer timer;
+
+    /**
+     * Constructor
+     * For deserialization only.
+     */
+    public PendingChallenge() {
+
+    }
+
+    /**
+     * Constructor
+     *
+     * @param state    the RADIUS State of the challenge.
+     * @param serverId the server that issued the challenge, null if not known.
+     * @param userName the user logging in.
+     * @param timer    the login's timer, null if not known.
+     */
+    PendingChallenge(byte[] state, String serverId, String userName, LoginTimer timer) {
+
+        this.state = state;
+        this.serverId = serverId;
+        this.userName = userName;
+        this.issuedAt = System.currentTimeMillis();
+        this.timer = timer;
+    }
+
+    byte[] getState() {
+
+        return state;
+    }
+
+    String getServerId() {
+
+        return serverId;
+    }
+
+    String getUserName() {
+
+        return userName;
+    }
+
+    long getIssuedAt() {
+
+        return issuedAt;
+    }
+
+    LoginTimer getTimer() {
+
+        return timer;
+    }
+
+    /**
+     * Get the compact form, to keep the challenge outside the context.
+     *
+     * @return the encoded challenge.
+     */
+    byte[] toBytes() {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode the pending challenge", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a challenge from its compact form.
+     *
+     * @param bytes the encoded challenge.
+     * @return the challenge.
+     * @throws IOException if the bytes are not a pending challenge.
+     */
+    static PendingChallenge fromBytes(byte[] bytes) throws IOException {
+
+        PendingChallenge challenge = new PendingChallenge();
+        challenge.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return challenge;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+
+        write(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+
+        read(in);
+    }
+
+    private void write(DataOutput out) throws IOException {
+
+        out.writeByte(VERSION);
+        writeBytes(out, state);
+        writeString(out, serverId);
+        writeString(out, userName);
+        writeVarLong(out, issuedAt);
+        out.writeBoolean(timer != null);
+        if (timer != null) {
+            timer.write(out, issuedAt);
+        }
+    }
+
+    private void read(DataInput in) throws IOException {
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new InvalidObjectException("Unknown pending challenge version " + version);
+        }
+        state = readBytes(in);
+        serverId = readString(in);
+        userName = readString(in);
+        issuedAt = readVarLong(in);
+        timer = in.readBoolean() ? LoginTimer.read(in, issuedAt) : null;
+    }
+
+    /**
+     * Write a byte array as its length plus one then its bytes, a length of 0 is null.
+     */
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+
+        if (bytes == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+
+        long length = readVarLong(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_FIELD_LENGTH) {
+            throw new InvalidObjectException("Pending challenge field of " + length + " bytes");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInput in) throws IOException {
+
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a value 7 bits at a time, low bits first, the top bit of each byte set
+     * if more follow. Small non-negative values take one or two bytes.
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed variable length integer");
+    }
+}
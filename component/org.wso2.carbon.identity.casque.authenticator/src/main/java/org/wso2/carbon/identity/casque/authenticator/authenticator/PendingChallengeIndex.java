@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This node's pending challenges, by the sessionDataKey of their authentication context.
+ * Enabled by challenge_index_size, for deployments whose load balancer sends the response to
+ * the node that sent the challenge: the challenge is then kept here instead of in the
+ * context, so nothing of it is replicated. Each challenge is held in its compact form, one
+ * array per login. Entries expire after challenge_index_ttl and the oldest are evicted
+ * beyond challenge_index_size.
+ */
+class PendingChallengeIndex {
+
+    private static final Log log = LogFactory.getLog(PendingChallengeIndex.class);
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Check if challenges are to be kept here.
+     *
+     * @return true if challenge_index_size is set.
+     */
+    boolean isEnabled() {
+
+        return CasqueConfig.current().getChallengeIndexSize() > 0;
+    }
+
+    /**
+     * Keep a challenge until its response arrives.
+     *
+     * @param sessionDataKey the identifier of the authentication context.
+     * @param challenge      the challenge sent to the user.
+     */
+    synchronized void put(String sessionDataKey, PendingChallenge challenge) {
+
+        CasqueConfig config = CasqueConfig.current();
+        long ttl = config.getChallengeIndexTtl();
+        int maxSize = config.getChallengeIndexSize();
+        if (ttl <= 0 || maxSize <= 0) {
+            entries.clear();
+            return;
+        }
+        long now = System.nanoTime();
+        entries.remove(sessionDataKey);
+        entries.put(sessionDataKey, new Entry(challenge.toBytes(), now + TimeUnit.MILLISECONDS.toNanos(ttl)));
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (entries.size() <= maxSize && entry.expires - now > 0) {
+                break;
+            }
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remove the challenge a response answers.
+     *
+     * @param sessionDataKey the identifier of the authentication context.
+     * @return the challenge or null if none is pending on this node or it has expired.
+     */
+    PendingChallenge take(String sessionDataKey) {
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(sessionDataKey);
+        }
+        if (entry == null || entry.expires - System.nanoTime() <= 0) {
+            return null;
+        }
+        try {
+            return PendingChallenge.fromBytes(entry.challenge);
+        } catch (IOException e) {
+            log.error("Could not read the pending challenge", e);
+            return null;
+        }
+    }
+
+    /**
+     * Drop every pending challenge.
+     */
+    synchronized void clear() {
+
+        entries.clear();
+    }
+
+    /**
+     * Get the number of pending challenges, including any that have expired but not been evicted.
+     *
+     * @return the index size.
+     */
+    synchronized int size() {
+
+        return entries.size();
+    }
+
+    private static final class Entry {
+
+        private final byte[] challenge;
+        private final long expires;
+
+        private Entry(byte[] challenge, long expires) {
+
+            this.challenge = challenge;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the parsed challenge page templates.
+ * A template is read from the template directory if the file is there, otherwise from the
+ * resources bundled with the authenticator. A WatchService thread drops a cached template when
+ * its file in the template directory is created, changed or deleted, so the next page picks
+ * up the new version without redeploying the bundle. While the directory does not exist it is
+ * looked for again every second, and once it appears the bundled templates cached in the
+ * meantime are dropped.
+ */
+class TemplateStore {
+
+    private static final Log log = LogFactory.getLog(TemplateStore.class);
+    private static final long DIR_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, ChallengeTemplate> templates = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private WatchService watchService;
+    private volatile Path watchedDir;
+    private volatile long nextDirCheck = System.nanoTime();
+    private volatile CasqueConfig config;
+
+    /**
+     * Get a template, loading and parsing it if it is not cached.
+     *
+     * @param name the template file name.
+     * @return the parsed template.
+     * @throws CasqueException if the template is neither in the template directory nor bundled.
+     */
+    ChallengeTemplate get(String name) throws CasqueException {
+
+        CasqueConfig current = CasqueConfig.current();
+        if (current != config) {
+            reconfigure(current);
+        }
+        if (watchedDir == null && System.nanoTime() - nextDirCheck >= 0) {
+            checkTemplateDir();
+        }
+        ChallengeTemplate template = templates.get(name);
+        if (template == null) {
+            Path dir = getTemplateDir();
+            if (watch(dir)) {
+                invalidate();
+            }
+            long changeCount = changes.get();
+            String text = dir == null ? null : loadFile(dir.resolve(name));
+            if (text == null) {
+                text = loadResource("/" + name);
+            }
+            if (text == null || text.isEmpty()) {
+                throw new CasqueException("Challenge page template " + name + " is not available.");
+            }
+            template = ChallengeTemplate.parse(text);
+            if (changes.get() == changeCount) {
+                // Only cache it if no file changed while it was loading, it may be stale
+                templates.put(name, template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Drop every cached template.
+     */
+    void invalidate() {
+
+        changes.incrementAndGet();
+        templates.clear();
+    }
+
+    /**
+     * Start watching the template directory if it has appeared since it was last looked for.
+     * The templates cached until then are the bundled ones, they are dropped so the files in
+     * the directory are used.
+     */
+    private void checkTemplateDir() {
+
+        nextDirCheck = System.nanoTime() + DIR_CHECK_INTERVAL;
+        if (watch(getTemplateDir())) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Drop the cached templates if casque.conf was reloaded with another template directory.
+     *
+     * @param current the current configuration.
+     */
+    private synchronized void reconfigure(CasqueConfig current) {
+
+        if (current == config) {
+            return;
+        }
+        if (config != null && !config.getTemplateDir().equals(current.getTemplateDir())) {
+            invalidate();
+        }
+        config = current;
+    }
+
+    /**
+     * Stop watching the template directory and drop the cached templates.
+     * The store is left as new, a later get() loads the templates and starts watching again,
+     * as it does when the component is activated once more.
+     */
+    synchronized void close() {
+
+        invalidate();
+        config = null;
+        nextDirCheck = System.nanoTime();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.error("Error closing the template directory watcher", e);
+            }
+            watchService = null;
+            watchedDir = null;
+        }
+    }
+
+    private static Path getTemplateDir() {
+
+        try {
+            File dir = CasqueConfig.current().getTemplateDir();
+            return dir.isDirectory() ? dir.toPath() : null;
+        } catch (RuntimeException e) {
+            log.error("Error locating the challenge page template directory", e);
+            return null;
+        }
+    }
+
+    /**
+     * Start the watcher thread on the template directory if it is not watched yet.
+     *
+     * @param dir the template directory, or null if there is none.
+     * @return true if a watcher was started.
+     */
+    private synchronized boolean watch(Path dir) {
+
+        if (dir == null || dir.equals(watchedDir)) {
+            return false;
+        }
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            if (watchService != null) {
+                watchService.close();
+            }
+            watchService = service;
+            watchedDir = dir;
+            Thread thread = new Thread(() -> poll(service), "CASQUE-Template-Watcher");
+            thread.setDaemon(true);
+            thread.start();
+            if (log.isDebugEnabled()) {
+                log.debug("Watching challenge page templates in " + dir);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("Error watching the template directory " + dir + ", templates will not be reloaded", e);
+            return false;
+        }
+    }
+
+    /**
+     * Stop a watcher whose directory has gone, so the directory is watched again if it is recreated.
+     *
+     * @param service the watch service of the directory.
+     */
+    private synchronized void unwatch(WatchService service) {
+
+        if (watchService != service) {
+            return;   // Already replaced or closed
+        }
+        try {
+            service.close();
+        } catch (IOException e) {
+            log.error("Error closing the template directory watcher", e);
+        }
+        watchService = null;
+        watchedDir = null;
+    }
+
+    /**
+     * Drop the cached template for each file changed in the template directory until the watcher is closed.
+     *
+     * @param service the watch service.
+     */
+    private void poll(WatchService service) {
+
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidate();
+                    } else {
+                        String name = event.context().toString();
+                        changes.incrementAndGet();
+                        if (templates.remove(name) != null && log.isDebugEnabled()) {
+                            log.debug("Challenge page template " + name + " changed, reloading");
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    // The directory has gone, fall back to the bundled templates until it is back
+                    unwatch(service);
+                    invalidate();
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed, stop watching
+        }
+    }
+
+    /**
+     * Load a template file from the template directory.
+     *
+     * @param file the file.
+     * @return the text or null if there is no such file.
+     * @throws CasqueException if the file can not be read.
+     */
+    private static String loadFile(Path file) throws CasqueException {
+
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new CasqueException("Failed to load the challenge page template " + file, e);
+        }
+    }
+
+    /**
+     * load a resource from the path specified.
+     *
+     * @param path loadResource path
+     * @throws CasqueException :
+     */
+    private static String loadResource(String path) throws CasqueException {
+
+        InputStream input = TemplateStore.class.getResourceAsStream(path);
+        if (input != null) {
+            try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+                StringBuilder builder = new StringBuilder();
+                char[] buffer = new char[4096];
+                int len;
+                while ((len = reader.read(buffer)) > 0) {
+                    builder.append(buffer, 0, len);
+                }
+                return builder.toString();
+            } catch (IOException e) {
+                throw new CasqueException("Failed to load the casque QR player.", e);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.wso2.carbon.user.core.util.UserCoreUtil;
+import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of the validated CASQUE Token ID of each user, per tenant.
+ * Saves a user store read on every login. Entries expire after token_cache_ttl and the least
+ * recently used are evicted beyond token_cache_size. A user's entry is also dropped when their
+ * claims change, see invalidate().
+ * Lookups take no lock, each entry records when it was last read. Eviction runs on the put
+ * that takes the cache past its size and removes a batch of the least recently read entries,
+ * so its cost is spread over many puts.
+ */
+public class TokenIdCache {
+
+    private static final int EVICTION_BATCH = 16;   // Evict down to 1/16 below the maximum size
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Get a user's cached Token ID.
+     *
+     * @param tenantId the tenant of the user.
+     * @param userName the user name as given at login.
+     * @return the Token ID or null if it is not cached or has expired.
+     */
+    public String get(int tenantId, String userName) {
+
+        Key key = new Key(tenantId, userName);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (entry.expires - now <= 0) {
+            entries.remove(key, entry);
+            return null;
+        }
+        entry.lastRead = now;
+        return entry.tokenId;
+    }
+
+    /**
+     * Cache a user's validated Token ID.
+     *
+     * @param tenantId the tenant of the user.
+     * @param userName the user name as given at login.
+     * @param tokenId  the Token ID.
+     */
+    public void put(int tenantId, String userName, String tokenId) {
+
+        CasqueConfig config = CasqueConfig.current();
+        long ttl = config.getTokenCacheTtl();
+        int maxSize = config.getTokenCacheSize();
+        if (ttl <= 0 || maxSize <= 0) {
+            entries.clear();
+            return;
+        }
+        long now = System.nanoTime();
+        entries.put(new Key(tenantId, userName), new Entry(tokenId, now + TimeUnit.MILLISECONDS.toNanos(ttl), now));
+        if (entries.size() > maxSize && evictionLock.tryLock()) {
+            try {
+                evict(maxSize - maxSize / EVICTION_BATCH, now);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove the expired entries, then the least recently read until the cache is down to size.
+     * Only one thread evicts at a time, the others carry on.
+     *
+     * @param size the number of entries to keep.
+     * @param now  the current System.nanoTime().
+     */
+    private void evict(int size, long now) {
+
+        entries.values().removeIf(entry -> entry.expires - now <= 0);
+        int excess = entries.size() - size;
+        if (excess <= 0) {
+            return;
+        }
+        // Sort on a copy of the read times, lookups carry on updating them meanwhile
+        List<Candidate> eldest = new ArrayList<>(entries.size());
+        for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+            eldest.add(new Candidate(entry.getKey(), entry.getValue()));
+        }
+        eldest.sort((a, b) -> Long.compare(a.lastRead - b.lastRead, 0));
+        for (int i = 0; i < excess && i < eldest.size(); i++) {
+            entries.remove(eldest.get(i).key, eldest.get(i).entry);
+        }
+    }
+
+    /**
+     * Drop a user's cached Token ID.
+     * The user may have logged in with or without the user store domain and tenant domain,
+     * so every entry of the tenant which names the same user is dropped.
+     *
+     * @param tenantId the tenant of the user.
+     * @param userName the user name, with or without domains.
+     */
+    public void invalidate(int tenantId, String userName) {
+
+        String name = baseName(userName);
+        entries.keySet().removeIf(key -> key.tenantId == tenantId && baseName(key.userName).equalsIgnoreCase(name));
+    }
+
+    /**
+     * Drop every cached Token ID of a tenant.
+     *
+     * @param tenantId the tenant.
+     */
+    public void invalidateTenant(int tenantId) {
+
+        entries.keySet().removeIf(key -> key.tenantId == tenantId);
+    }
+
+    /**
+     * Drop every cached Token ID.
+     */
+    public void clear() {
+
+        entries.clear();
+    }
+
+    /**
+     * Get the number of cached Token IDs, including any that have expired but not been evicted.
+     *
+     * @return the cache size.
+     */
+    public int size() {
+
+        return entries.size();
+    }
+
+    private static String baseName(String userName) {
+
+        return UserCoreUtil.removeDomainFromName(MultitenantUtils.getTenantAwareUsername(userName));
+    }
+
+    private static final class Key {
+
+        private final int tenantId;
+        private final String userName;
+
+        private Key(int tenantId, String userName) {
+
+            this.tenantId = tenantId;
+            this.userName = userName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return tenantId == other.tenantId && userName.equals(other.userName);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return Objects.hash(tenantId, userName);
+        }
+    }
+
+    private static final class Candidate {
+
+        private final Key key;
+        private final Entry entry;
+        private final long lastRead;
+
+        private Candidate(Key key, Entry entry) {
+
+            this.key = key;
+            this.entry = entry;
+            this.lastRead = entry.lastRead;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String tokenId;
+        private final long expires;
+        private volatile long lastRead;
+
+        private Entry(String tokenId, long expires, long lastRead) {
+
+            this.tokenId = tokenId;
+            this.expires = expires;
+            this.lastRead = lastRead;
+        }
+    }
+}
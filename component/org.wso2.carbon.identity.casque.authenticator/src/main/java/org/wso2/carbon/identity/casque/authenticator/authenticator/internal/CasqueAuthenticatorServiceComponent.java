@@ -21,7 +21,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
 import org.wso2.carbon.identity.casque.authenticator.authenticator.CasqueAuthenticator;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.CasqueConfig;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.LoginMetrics;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.Radius;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.RadiusMetrics;
+import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
 import org.wso2.carbon.identity.application.authentication.framework.ApplicationAuthenticator;
+import org.wso2.carbon.user.core.listener.UserOperationEventListener;
 import org.wso2.carbon.user.core.service.RealmService;
 
 /**
@@ -33,6 +39,7 @@ import org.wso2.carbon.user.core.service.RealmService;
 public class CasqueAuthenticatorServiceComponent {
 
     private static final Log log = LogFactory.getLog(CasqueAuthenticatorServiceComponent.class);
+    private CasqueAuthenticator casqueAuth;
 
     /**
      * This method is to register the Casque authenticator service.
@@ -42,14 +49,39 @@ public class CasqueAuthenticatorServiceComponent {
     protected void activate(ComponentContext ctxt) {
 
         try {
-            CasqueAuthenticator casqueAuth = new CasqueAuthenticator();
+            casqueAuth = new CasqueAuthenticator();
             ctxt.getBundleContext().registerService(ApplicationAuthenticator.class.getName(), casqueAuth, null);
+            ctxt.getBundleContext().registerService(UserOperationEventListener.class.getName(),
+                    new CasqueUserOperationEventListener(casqueAuth.getTokenIdCache()), null);
             if (log.isDebugEnabled()) {
                 log.debug(" CasqueAuthenticator bundle is activated ");
             }
         } catch (Throwable e) {
             log.error(" CasqueAuthenticator bundle activation Failed ");
         }
+        start();
+    }
+
+    /**
+     * Register the metrics, load and check casque.conf and open the RADIUS ports, so
+     * a misconfiguration is reported at startup rather than on the first login. The authenticator
+     * stays registered if this fails, each login tries again and the file is reloaded once it is fixed.
+     */
+    private void start() {
+
+        RadiusMetrics.register();
+        LoginMetrics.register();
+        try {
+            CasqueConfig config = CasqueConfig.get();
+            Radius.open();
+            log.info("CASQUE SNR configuration loaded, " + config.getServers().size() + " server(s) configured");
+            if (config.getWarmupUser() != null) {
+                Radius.probe(config.getWarmupUser());
+            }
+        } catch (CasqueException e) {
+            log.error("CASQUE SNR authentication is not available until casque.conf is fixed: "
+                    + e.getMessage(), e);
+        }
     }
 
     /**
@@ -59,6 +91,14 @@ public class CasqueAuthenticatorServiceComponent {
      */
     protected void deactivate(ComponentContext ctxt) {
 
+        Radius.close();
+        RadiusMetrics.unregister();
+        LoginMetrics.unregister();
+        CasqueConfig.stopWatching();
+        if (casqueAuth != null) {
+            casqueAuth.close();
+        }
+
         if (log.isDebugEnabled()) {
             log.debug(" CasqueAuthenticator bundle is deactivated ");
         }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.internal;
+
+import org.wso2.carbon.identity.casque.authenticator.authenticator.TokenIdCache;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.common.AbstractUserOperationEventListener;
+
+import java.util.Map;
+
+/**
+ * Drops a user's cached CASQUE Token ID when their claims are changed or the user is deleted.
+ */
+public class CasqueUserOperationEventListener extends AbstractUserOperationEventListener {
+
+    private static final int EXECUTION_ORDER_ID = 1356;
+    private final TokenIdCache tokenIdCache;
+
+    /**
+     * Constructor
+     *
+     * @param tokenIdCache the cache to invalidate.
+     */
+    public CasqueUserOperationEventListener(TokenIdCache tokenIdCache) {
+
+        this.tokenIdCache = tokenIdCache;
+    }
+
+    @Override
+    public int getExecutionOrderId() {
+
+        return EXECUTION_ORDER_ID;
+    }
+
+    @Override
+    public boolean doPostSetUserClaimValue(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+
+        return invalidate(userName, userStoreManager);
+    }
+
+    @Override
+    public boolean doPostSetUserClaimValues(String userName, Map<String, String> claims, String profileName,
+                                            UserStoreManager userStoreManager) throws UserStoreException {
+
+        return invalidate(userName, userStoreManager);
+    }
+
+    @Override
+    public boolean doPostDeleteUserClaimValue(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+
+        return invalidate(userName, userStoreManager);
+    }
+
+    @Override
+    public boolean doPostDeleteUserClaimValues(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+
+        return invalidate(userName, userStoreManager);
+    }
+
+    @Override
+    public boolean doPostDeleteUser(String userName, UserStoreManager userStoreManager) throws UserStoreException {
+
+        return invalidate(userName, userStoreManager);
+    }
+
+    private boolean invalidate(String userName, UserStoreManager userStoreManager) throws UserStoreException {
+
+        try {
+            tokenIdCache.invalidate(userStoreManager.getTenantId(), userName);
+        } catch (org.wso2.carbon.user.api.UserStoreException e) {
+            throw new UserStoreException("Unable to clear the cached Token ID of user: " + userName, e);
+        }
+        return true;
+    }
+}
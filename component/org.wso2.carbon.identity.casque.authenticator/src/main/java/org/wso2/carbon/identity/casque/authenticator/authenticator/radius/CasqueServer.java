@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * A CASQUE SNR Authentication Server the authenticator can send requests to.
+ * The id is the configured host name and port, it stays the same if the address is re-resolved
+ * and is what a pending challenge is pinned to.
+ */
+public class CasqueServer {
+
+    private final String id;
+    private final String host;
+    private final InetSocketAddress address;
+    private final int weight;
+
+    /**
+     * Constructor
+     *
+     * @param host    the configured host name or address.
+     * @param address the resolved address.
+     * @param port    the RADIUS port.
+     * @param weight  the share of new requests relative to the other servers, at least 1.
+     */
+    public CasqueServer(String host, InetAddress address, int port, int weight) {
+
+        this.id = host + ":" + port;
+        this.host = host;
+        this.address = new InetSocketAddress(address, port);
+        this.weight = weight;
+    }
+
+    public String getId() {
+
+        return id;
+    }
+
+    public String getHost() {
+
+        return host;
+    }
+
+    public InetSocketAddress getAddress() {
+
+        return address;
+    }
+
+    public int getWeight() {
+
+        return weight;
+    }
+
+    /**
+     * Get the same server at a re-resolved address.
+     *
+     * @param newAddress the address the host name now resolves to.
+     * @return the server with the new address.
+     */
+    CasqueServer withAddress(InetAddress newAddress) {
+
+        return new CasqueServer(host, newAddress, address.getPort(), weight);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CasqueServer)) {
+            return false;
+        }
+        CasqueServer other = (CasqueServer) o;
+        return id.equals(other.id) && address.equals(other.address) && weight == other.weight;
+    }
+
+    @Override
+    public int hashCode() {
+
+        return Objects.hash(id, address, weight);
+    }
+
+    @Override
+    public String toString() {
+
+        return id;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker around one CASQUE SNR server.
+ * CLOSED: requests flow, consecutive requests without a reply are counted and
+ * failureThreshold of them in a row open the circuit.
+ * OPEN: requests are refused straight away instead of waiting out every retry,
+ * until openInterval has passed.
+ * HALF_OPEN: up to probeRequests requests are let through to test the server,
+ * a reply closes the circuit, another failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Log log = LogFactory.getLog(CircuitBreaker.class);
+
+    /**
+     * Circuit breaker states.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openInterval;
+    private final int probeRequests;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private int probes = 0;
+    private long openedAt = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name             the server the breaker protects, for logging.
+     * @param failureThreshold failed requests in a row that open the circuit.
+     * @param openInterval     milliseconds the circuit stays open before probing.
+     * @param probeRequests    requests let through while half open.
+     */
+    CircuitBreaker(String name, int failureThreshold, long openInterval, int probeRequests) {
+
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openInterval = TimeUnit.MILLISECONDS.toNanos(openInterval);
+        this.probeRequests = Math.max(1, probeRequests);
+    }
+
+    /**
+     * Ask to send a request.
+     * Moves an open circuit to half open once the open interval has passed.
+     *
+     * @return true if the request may be sent, false to fail it fast.
+     */
+    synchronized boolean tryAcquire() {
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openInterval) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                probes = 1;
+                return true;
+            default:
+                if (probes < probeRequests) {
+                    probes++;
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Record a reply from the server.
+     */
+    synchronized void recordSuccess() {
+
+        failures = 0;
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+        }
+    }
+
+    /**
+     * Record a request that got no reply.
+     */
+    synchronized void recordFailure() {
+
+        if (state == State.HALF_OPEN || (state == State.CLOSED && ++failures >= failureThreshold)) {
+            openedAt = System.nanoTime();
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Record a request that was let through but never sent, so tells nothing about the server.
+     * Hands back the probe it took if the circuit is half open.
+     */
+    synchronized void recordNotSent() {
+
+        if (state == State.HALF_OPEN && probes > 0) {
+            probes--;
+        }
+    }
+
+    /**
+     * Get the current state.
+     *
+     * @return CLOSED, OPEN or HALF_OPEN.
+     */
+    public synchronized State getState() {
+
+        return state;
+    }
+
+    private void transition(State next) {
+
+        if (next == State.OPEN) {
+            log.warn("CASQUE SNR Server " + name + " is not replying, circuit " + state + " -> OPEN");
+        } else if (log.isInfoEnabled()) {
+            log.info("CASQUE SNR Server " + name + " circuit " + state + " -> " + next);
+        }
+        state = next;
+        failures = 0;
+        probes = 0;
+    }
+}
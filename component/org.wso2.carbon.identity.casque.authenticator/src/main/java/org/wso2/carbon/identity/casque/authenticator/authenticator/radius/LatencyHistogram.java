@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed, roughly logarithmic buckets from 250 microseconds to 30 seconds.
+ * Recording is lock free, so it can be called from the selector threads. Percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    /* Bucket upper bounds in microseconds, the last bucket takes everything above. */
+    private static final long[] BOUNDS = {250, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000,
+            500000, 1000000, 2000000, 5000000, 10000000, 30000000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record one request.
+     *
+     * @param nanos how long it took in nanoseconds.
+     */
+    public void record(long nanos) {
+
+        long micros = Math.max(0, nanos / 1000L);
+        int bucket = 0;
+        while (bucket < BOUNDS.length && micros > BOUNDS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        total.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * Get the counts recorded so far.
+     * Taken without stopping the recorders, so it may be off by the requests recorded meanwhile.
+     *
+     * @return the summary.
+     */
+    public LatencySnapshot snapshot() {
+
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long maxMicros = max.get();
+        double mean = count == 0 ? 0 : total.sum() / 1000.0 / count;
+        return new LatencySnapshot(count, mean, percentile(snapshot, count, 0.5, maxMicros),
+                percentile(snapshot, count, 0.9, maxMicros), percentile(snapshot, count, 0.99, maxMicros),
+                maxMicros / 1000.0);
+    }
+
+    /**
+     * Find the bucket a percentile falls in.
+     *
+     * @return its upper bound in milliseconds, or the maximum if it is in the last bucket.
+     */
+    private static double percentile(long[] snapshot, long count, double fraction, long maxMicros) {
+
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], maxMicros) / 1000.0;
+            }
+        }
+        return maxMicros / 1000.0;
+    }
+}
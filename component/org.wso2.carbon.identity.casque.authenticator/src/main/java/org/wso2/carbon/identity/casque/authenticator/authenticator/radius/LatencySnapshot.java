@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Summary of a latency histogram, in milliseconds.
+ * Exposed over JMX as composite data.
+ */
+public class LatencySnapshot {
+
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double max;
+
+    /**
+     * Constructor
+     *
+     * @param count the number of requests.
+     * @param mean  the mean latency.
+     * @param p50   the median latency.
+     * @param p90   the 90th percentile latency.
+     * @param p99   the 99th percentile latency.
+     * @param max   the highest latency.
+     */
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public LatencySnapshot(long count, double mean, double p50, double p90, double p99, double max) {
+
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public long getCount() {
+
+        return count;
+    }
+
+    public double getMean() {
+
+        return mean;
+    }
+
+    public double getP50() {
+
+        return p50;
+    }
+
+    public double getP90() {
+
+        return p90;
+    }
+
+    public double getP99() {
+
+        return p99;
+    }
+
+    public double getMax() {
+
+        return max;
+    }
+}
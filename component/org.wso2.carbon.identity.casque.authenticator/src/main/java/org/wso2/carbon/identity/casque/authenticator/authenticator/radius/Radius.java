@@ -24,9 +24,15 @@ import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /**
  * Communicate with the CASQUE SNR Authentication Server using the RADIUS protocol
@@ -35,10 +41,13 @@ public class Radius implements Serializable {
 
     private static final Log log = LogFactory.getLog(Radius.class);
     private static final long serialVersionUID = 4341535155455223601L;
-    private static DatagramSocket socket = null;
+    private static volatile Transport transport = null;
 
     /**
      * Send Request to CASQUE SNR Authentication Server
+     * and wait for the reply, see getResponse().
+     * The calling thread is held for the round trip, the socket is read by the RADIUS
+     * selector threads.
      *
      * @param uid   the user name to send
      * @param pass  the password to send
@@ -48,37 +57,424 @@ public class Radius implements Serializable {
      */
     public static RadiusResponse sendRequest(String uid, String pass, byte[] state) throws CasqueException {
 
-        CasqueConfig.loadConfig();
+        return sendRequest(uid, pass, state, null);
+    }
+
+    /**
+     * Send Request to a CASQUE SNR Authentication Server
+     * and wait for the reply.
+     *
+     * @param uid      the user name to send
+     * @param pass     the password to send
+     * @param state    the RADIUS state value to send
+     * @param serverId the server that issued the state, null to pick a server.
+     * @return Challenge, Accept, Reject or an Error.
+     * @throws CasqueException throws CasqueException If DatagramSocket creation fails
+     */
+    public static RadiusResponse sendRequest(String uid, String pass, byte[] state, String serverId)
+            throws CasqueException {
+
+        Transport current = getTransport();
+        return getResponse(request(current, uid, pass, state, serverId), current.maxRequestTime);
+    }
+
+    /**
+     * Send Request to CASQUE SNR Authentication Server without blocking.
+     *
+     * @param uid   the user name to send
+     * @param pass  the password to send
+     * @param state the RADIUS state value to send
+     * @return future completed with the response.
+     * @throws CasqueException throws CasqueException If DatagramChannel creation fails
+     * @see #sendRequestAsync(String, String, byte[], String)
+     */
+    public static CompletableFuture<RadiusResponse> sendRequestAsync(String uid, String pass, byte[] state)
+            throws CasqueException {
+
+        return sendRequestAsync(uid, pass, state, null);
+    }
+
+    /**
+     * Send Request to a CASQUE SNR Authentication Server without blocking.
+     * A request with a server id goes to that server only, as the state it carries is
+     * only known there. Otherwise a server is picked from the pool and, if it does not
+     * reply, the request fails over to the next one.
+     * The future is completed with the Challenge, Accept or Reject, or with a RADIUS_ERROR response
+     * once the retries are exhausted. A request that could not be sent at all, see
+     * RadiusResponse.isLocal(), neither fails over nor counts against the server. The future is
+     * never completed exceptionally. It is completed by a RADIUS
+     * selector thread, so a stage chained to it should not block.
+     *
+     * @param uid      the user name to send
+     * @param pass     the password to send
+     * @param state    the RADIUS state value to send
+     * @param serverId the server that issued the state, null to pick a server.
+     * @return future completed with the response.
+     * @throws CasqueException throws CasqueException If DatagramChannel creation fails
+     */
+    public static CompletableFuture<RadiusResponse> sendRequestAsync(String uid, String pass, byte[] state,
+                                                                     String serverId) throws CasqueException {
+
+        return request(getTransport(), uid, pass, state, serverId);
+    }
+
+    /**
+     * Send Request on the given transport, counting it in the metrics.
+     */
+    private static CompletableFuture<RadiusResponse> request(Transport current, String uid, String pass,
+                                                             byte[] state, String serverId) {
+
+        final int phase = state == null ? RadiusMetrics.PHASE_REQUEST : RadiusMetrics.PHASE_CHALLENGE;
+        final long started = System.nanoTime();
+        RadiusMetrics.get().requestStarted();
+        Function<RadiusResponse, RadiusResponse> completed = response -> {
+            RadiusMetrics.get().requestCompleted(phase, System.nanoTime() - started, response.getType());
+            return response;
+        };
+        return dispatch(current, uid, pass, state, serverId, phase).thenApply(completed);
+    }
+
+    /**
+     * Send to the pinned server, or to the pool with failover.
+     */
+    private static CompletableFuture<RadiusResponse> dispatch(Transport current, String uid, String pass,
+                                                              byte[] state, String serverId, int phase) {
+
+        RadiusServerPool pool = current.pool;
+
+        if (serverId != null) {
+            CasqueServer server = pool.get(serverId);
+            if (server == null) {
+                log.error("CASQUE SNR Server " + serverId + " is no longer configured");
+                return CompletableFuture.completedFuture(RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+            }
+            if (!pool.getCircuitBreaker(server).tryAcquire()) {
+                log.error("CASQUE SNR Server " + serverId + " circuit is open, failing the request");
+                return CompletableFuture.completedFuture(RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+            }
+            return send(current, server, uid, pass, state, phase);
+        }
+        return sendWithFailover(current, pool.order(), 0, uid, pass, state, phase);
+    }
+
+    /**
+     * Open the RADIUS ports for the current configuration, loading casque.conf if needed.
+     * Called when the authenticator starts so the first login does not pay for it.
+     *
+     * @throws CasqueException if casque.conf can not be loaded or a DatagramChannel can not be created.
+     */
+    public static void open() throws CasqueException {
+
+        getTransport();
+    }
+
+    /**
+     * Send a request for the given user to each CASQUE SNR Server without blocking, and log
+     * whether it replied. Any reply shows the server is reachable and shares the secret, a reply
+     * signed with another secret is discarded like a lost one. The replies also seed each
+     * server's round trip time.
+     *
+     * @param uid the user name to send.
+     * @return future completed once every server has replied or timed out.
+     * @throws CasqueException if casque.conf can not be loaded or a DatagramChannel can not be created.
+     */
+    public static CompletableFuture<Void> probe(String uid) throws CasqueException {
+
+        Transport current = getTransport();
+        // The pool's entries, so the probe goes where requests go once a host name is resolved again
+        List<CasqueServer> servers = current.pool.getServers();
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[servers.size()];
+        for (int i = 0; i < replies.length; i++) {
+            final CasqueServer server = servers.get(i);
+            replies[i] = send(current, server, uid, "", null, RadiusMetrics.PHASE_REQUEST).thenAccept(response -> {
+                if (response.getType() == RadiusResponse.RADIUS_ERROR) {
+                    log.warn("CASQUE SNR Server " + server + " did not reply to the startup probe, "
+                            + "check its address and the shared secret");
+                } else {
+                    log.info("CASQUE SNR Server " + server + " replied to the startup probe");
+                }
+            });
+        }
+        return CompletableFuture.allOf(replies);
+    }
+
+    /**
+     * Close the RADIUS ports. Outstanding requests complete with a RADIUS_ERROR response.
+     * The ports are opened again by the next request.
+     */
+    public static void close() {
+
+        Transport current;
+        synchronized (Radius.class) {
+            current = transport;
+            transport = null;
+        }
+        if (current != null) {
+            current.client.close();
+            if (current.resolver != null) {
+                current.resolver.close();
+            }
+        }
+    }
+
+    /**
+     * Get the number of RADIUS packets waiting for a reply, for monitoring.
+     *
+     * @return the packet Identifiers in use.
+     */
+    static int getOutstandingPackets() {
+
+        Transport current = transport;
+        return current == null ? 0 : current.client.getOutstanding();
+    }
+
+    /**
+     * Get the circuit breaker state of each CASQUE SNR server, for monitoring.
+     *
+     * @return the state by server id, empty until the first request.
+     */
+    public static Map<String, CircuitBreaker.State> getCircuitStates() {
+
+        Transport current = transport;
+        if (current == null) {
+            return Collections.emptyMap();
+        }
+        return current.pool.getCircuitStates();
+    }
+
+    /**
+     * Send to each server in turn, skipping those whose circuit breaker refuses
+     * the request, until one replies. A request that failed locally would fail the same
+     * way on every server, so it is not tried again.
+     */
+    private static CompletableFuture<RadiusResponse> sendWithFailover(final Transport current,
+                                                                      final List<CasqueServer> servers,
+                                                                      final int index, final String uid,
+                                                                      final String pass, final byte[] state,
+                                                                      final int phase) {
+
+        RadiusServerPool pool = current.pool;
+        int next = index;
+        while (next < servers.size() && !pool.getCircuitBreaker(servers.get(next)).tryAcquire()) {
+            next++;
+        }
+        if (next == servers.size()) {
+            log.error("Every CASQUE SNR Server circuit is open, failing the request");
+            return CompletableFuture.completedFuture(RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+        }
+        final int tried = next;
+        return send(current, servers.get(tried), uid, pass, state, phase)
+                .thenCompose(response -> {
+                    if (response.getType() == RadiusResponse.RADIUS_ERROR && !response.isLocal()
+                            && tried + 1 < servers.size()) {
+                        log.warn("No reply from CASQUE SNR Server " + servers.get(tried) + ", failing over");
+                        return sendWithFailover(current, servers, tried + 1, uid, pass, state, phase);
+                    }
+                    return CompletableFuture.completedFuture(response);
+                });
+    }
+
+    /**
+     * Send to one server and record how it went.
+     * Only a request sent every try without a reply counts as a failure of the server.
+     * The request uses the secret and retry settings of the configuration it started with.
+     */
+    private static CompletableFuture<RadiusResponse> send(Transport current, final CasqueServer server, String uid,
+                                                          String pass, byte[] state, final int phase) {
+
+        final CircuitBreaker breaker = current.pool.getCircuitBreaker(server);
+        final long started = System.nanoTime();
+        return current.client.send(uid, pass, state, server.getAddress(), current.pool.getRttEstimator(server),
+                current.config.getRadiusSecret(), current.config.getRetryTries())
+                .thenApply(response -> {
+                    if (response.isLocal()) {
+                        breaker.recordNotSent();
+                        return response;
+                    }
+                    RadiusMetrics.get().serverCompleted(server.getId(), phase, System.nanoTime() - started);
+                    if (response.getType() == RadiusResponse.RADIUS_ERROR) {
+                        breaker.recordFailure();
+                    } else {
+                        breaker.recordSuccess();
+                        response.setServerId(server.getId());
+                    }
+                    return response;
+                });
+    }
+
+    /**
+     * Wait for a pending response.
+     * The future is completed once the retries have run out, the wait is bounded anyway by
+     * the longest a request can take, so a lost completion can not hold the caller for ever.
+     * That is the time of the current transport, sendRequest() uses the time of the transport it sent on.
+     *
+     * @param future the future returned by sendRequestAsync.
+     * @return the response, or a local RADIUS_ERROR response if the wait was interrupted or timed out.
+     */
+    public static RadiusResponse getResponse(CompletableFuture<RadiusResponse> future) {
+
+        Transport current = transport;
+        return getResponse(future, current == null ? maxRequestTime(CasqueConfig.current())
+                : current.maxRequestTime);
+    }
+
+    /**
+     * Wait for a pending response, at most the given time.
+     */
+    private static RadiusResponse getResponse(CompletableFuture<RadiusResponse> future, long timeout) {
 
-        RadiusPacket radiusPacket = new RadiusPacket();
-        byte[] buffer = radiusPacket.formRequestPacket(uid, pass, state);
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, CasqueConfig.casqueAddress,
-                CasqueConfig.casquePort);
         try {
-            if (socket == null) {
-                socket = new DatagramSocket(CasqueConfig.localPort);
-                socket.setSoTimeout(1000);
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting for the CASQUE SNR Server", e);
+        } catch (ExecutionException e) {
+            log.error("Error contacting the CASQUE SNR Server", e);
+        } catch (TimeoutException e) {
+            log.error("No result from the CASQUE SNR Server after " + timeout + " ms");
+        }
+        return RadiusResponse.localError(RadiusResponse.RADIUS_ERROR);
+    }
+
+    /**
+     * Get the RADIUS transport for the current configuration.
+     * Built on first use, and rebuilt when casque.conf has been reloaded. Requests already
+     * sent keep the transport they started with.
+     *
+     * @return the transport.
+     * @throws CasqueException if casque.conf can not be loaded or a DatagramChannel can not be created.
+     */
+    private static Transport getTransport() throws CasqueException {
+
+        CasqueConfig config = CasqueConfig.get();
+        Transport current = transport;
+        if (current == null || current.config != config) {
+            synchronized (Radius.class) {
+                current = transport;
+                if (current == null || current.config != config) {
+                    current = rebuild(current, config);
+                    transport = current;
+                }
             }
-        } catch (SocketException e) {
-            throw new CasqueException("Error creating the Datagram Socket. ", e);
         }
-        DatagramPacket responsePacket;
-        int tries = 3;
-        while (tries-- != 0) {
+        return current;
+    }
+
+    /**
+     * Build the transport for a new configuration.
+     * The client and the server pool of the previous transport are kept if their settings have not
+     * changed, so the sockets and the servers' circuit and round trip time state carry over.
+     * A replaced client is closed once its outstanding requests have finished.
+     *
+     * @param previous the transport of the previous configuration, null if there is none.
+     * @param config   the new configuration.
+     * @return the transport.
+     * @throws CasqueException If DatagramChannel creation fails
+     */
+    private static Transport rebuild(Transport previous, CasqueConfig config) throws CasqueException {
+
+        RadiusClient radiusClient;
+        if (previous != null && sameSockets(previous.config, config)) {
+            radiusClient = previous.client;
+        } else {
             try {
-                byte[] b = new byte[512];
-                responsePacket = new DatagramPacket(b, b.length);
-                socket.setSoTimeout(1000);
-                socket.send(packet);
-                socket.setSoTimeout(2500);
-                socket.receive(responsePacket);
-                return radiusPacket.parsePacket(responsePacket);
-            } catch (IOException ioe) {
-                log.error("Could not get the Datagram responsePacket", ioe);
+                radiusClient = newClient(config);
+            } catch (IOException e) {
+                if (previous == null) {
+                    throw new CasqueException("Error creating the Datagram Channel. ", e);
+                }
+                // The new pool may need a port the old one holds, close it first
+                log.warn("Closing the RADIUS ports before opening the reconfigured ones", e);
+                previous.client.close();
+                previous = new Transport(previous.config, null, previous.pool, previous.resolver);
+                try {
+                    radiusClient = newClient(config);
+                } catch (IOException ioe) {
+                    throw new CasqueException("Error creating the Datagram Channel. ", ioe);
+                }
             }
+            if (previous != null && previous.client != null) {
+                previous.client.closeWhenIdle(previous.maxRequestTime);
+            }
+        }
+
+        RadiusServerPool pool;
+        RadiusServerResolver resolver = previous == null ? null : previous.resolver;
+        if (previous != null && samePool(previous.config, config)) {
+            pool = previous.pool;
+        } else {
+            pool = new RadiusServerPool(config.getServers(), config.getServerSelection(),
+                    config.getServerFailureThreshold(), config.getServerRetryInterval(),
+                    config.getServerProbeRequests(),
+                    config.getRetryInitialTimeout(), config.getRetryMinTimeout(),
+                    config.getRetryMaxTimeout());
+        }
+        if (resolver != null && (pool != previous.pool || resolver.getInterval() != config.getDnsTtl())) {
+            resolver.close();
+            resolver = null;
         }
-        log.error("Error contacting the CASQUE SNR Server");
-        return new RadiusResponse(RadiusResponse.RADIUS_ERROR);
+        if (resolver == null && config.getDnsTtl() > 0) {
+            resolver = new RadiusServerResolver(pool, config.getDnsTtl());
+        }
+
+        return new Transport(config, radiusClient, pool, resolver);
+    }
+
+    /**
+     * Get the longest a request can take: every try at every server waiting out the longest
+     * reply timeout, plus one more as margin.
+     *
+     * @param config the configuration the request was sent with.
+     * @return the time in milliseconds.
+     */
+    private static long maxRequestTime(CasqueConfig config) {
+
+        return config.getRetryMaxTimeout() * (Math.max(1, config.getRetryTries())
+                * Math.max(1, config.getServers().size()) + 1);
     }
 
-}
\ No newline at end of file
+    private static RadiusClient newClient(CasqueConfig config) throws IOException {
+
+        return new RadiusClient(config.getLocalPorts(), config.getSocketPoolMax(), config.getReceiveThreads());
+    }
+
+    private static boolean sameSockets(CasqueConfig a, CasqueConfig b) {
+
+        return Arrays.equals(a.getLocalPorts(), b.getLocalPorts()) && a.getSocketPoolMax() == b.getSocketPoolMax()
+                && a.getReceiveThreads() == b.getReceiveThreads();
+    }
+
+    private static boolean samePool(CasqueConfig a, CasqueConfig b) {
+
+        return a.getServers().equals(b.getServers()) && a.getServerSelection().equals(b.getServerSelection())
+                && a.getServerFailureThreshold() == b.getServerFailureThreshold()
+                && a.getServerRetryInterval() == b.getServerRetryInterval()
+                && a.getServerProbeRequests() == b.getServerProbeRequests()
+                && a.getRetryInitialTimeout() == b.getRetryInitialTimeout()
+                && a.getRetryMinTimeout() == b.getRetryMinTimeout()
+                && a.getRetryMaxTimeout() == b.getRetryMaxTimeout();
+    }
+
+    /**
+     * The RADIUS client, server pool and its resolver built for one configuration, and the longest
+     * a request sent on them can take.
+     */
+    private static final class Transport {
+
+        private final CasqueConfig config;
+        private final RadiusClient client;
+        private final RadiusServerPool pool;
+        private final RadiusServerResolver resolver;
+        private final long maxRequestTime;
+
+        private Transport(CasqueConfig config, RadiusClient client, RadiusServerPool pool,
+                          RadiusServerResolver resolver) {
+
+            this.config = config;
+            this.client = client;
+            this.pool = pool;
+            this.resolver = resolver;
+            this.maxRequestTime = maxRequestTime(config);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.util.Arrays;
+
+/**
+ * Flyweight view of the attributes of a received RADIUS packet.
+ * The attributes are read in place in the receive buffer, only a value asked for with
+ * copyValue() is copied out. One view is reused for packet after packet by wrapping
+ * each in turn, so it must not be shared between threads.
+ */
+final class RadiusAttributes {
+
+    private byte[] data;
+    private int start;
+    private int end;
+
+    /**
+     * Point the view at the attributes of a packet and check they are well formed.
+     * Each attribute must be at least 2 bytes long and lie inside the packet.
+     *
+     * @param data  the packet buffer.
+     * @param start the offset of the first attribute, 20 in a RADIUS packet.
+     * @param end   the offset after the last attribute, the packet length.
+     * @return false if an attribute length is invalid.
+     */
+    boolean wrap(byte[] data, int start, int end) {
+
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        int offset = start;
+        while (offset < end) {
+            if (offset + 2 > end) {
+                return false;
+            }
+            int length = data[offset + 1] & 0xff;
+            if (length < 2 || offset + length > end) {
+                return false;
+            }
+            offset += length;
+        }
+        return true;
+    }
+
+    /**
+     * Drop the reference to the packet buffer.
+     */
+    void clear() {
+
+        data = null;
+    }
+
+    /**
+     * Find the first attribute of a type.
+     *
+     * @param type the attribute type.
+     * @return the offset of the attribute in the buffer, or -1 if there is none.
+     */
+    int find(int type) {
+
+        int offset = start;
+        while (offset < end) {
+            if ((data[offset] & 0xff) == type) {
+                return offset;
+            }
+            offset += data[offset + 1] & 0xff;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the offset of the value of an attribute.
+     *
+     * @param attribute the attribute offset from find().
+     * @return the value offset in the buffer.
+     */
+    int getValueOffset(int attribute) {
+
+        return attribute + 2;
+    }
+
+    /**
+     * Get the length of the value of an attribute.
+     *
+     * @param attribute the attribute offset from find().
+     * @return the value length.
+     */
+    int getValueLength(int attribute) {
+
+        return (data[attribute + 1] & 0xff) - 2;
+    }
+
+    /**
+     * Copy the value of the first attribute of a type out of the buffer.
+     * Used for values which must outlive the packet buffer.
+     *
+     * @param type the attribute type.
+     * @return the attribute value or null if not found.
+     */
+    byte[] copyValue(int type) {
+
+        int attribute = find(type);
+        if (attribute < 0) {
+            return null;
+        }
+        int offset = getValueOffset(attribute);
+        return Arrays.copyOfRange(data, offset, offset + getValueLength(attribute));
+    }
+}
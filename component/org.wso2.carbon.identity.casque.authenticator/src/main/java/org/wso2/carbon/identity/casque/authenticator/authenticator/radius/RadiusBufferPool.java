@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of request packet buffers.
+ * A request is encoded into a buffer taken from the pool, which is kept until the request
+ * completes because resends and reply verification read it. The buffer is then handed back
+ * for the next request, so the send path does not allocate a packet per request.
+ * When the pool is empty a new buffer is allocated, when it is full a returned buffer is dropped.
+ */
+final class RadiusBufferPool {
+
+    private static final int POOL_SIZE = 1024;
+    private static final Queue<ByteBuffer> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private RadiusBufferPool() {
+
+    }
+
+    /**
+     * Take a buffer from the pool.
+     *
+     * @return a cleared heap buffer of RadiusPacket.MAX_PACKET_LENGTH bytes.
+     */
+    static ByteBuffer acquire() {
+
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(RadiusPacket.MAX_PACKET_LENGTH);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool.
+     * The caller must not touch the buffer afterwards.
+     *
+     * @param buffer the buffer.
+     */
+    static void release(ByteBuffer buffer) {
+
+        buffers.offer(buffer);
+    }
+}
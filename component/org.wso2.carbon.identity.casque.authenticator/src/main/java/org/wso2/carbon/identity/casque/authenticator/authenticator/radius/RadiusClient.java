@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Multiplexed, non-blocking RADIUS client.
+ * Requests are sent from a pool of local ports, each with its own 256 packet Identifiers.
+ * Each request goes out on the port with the fewest outstanding requests. The ports are
+ * spread over a number of selector threads which read the replies and run the retransmission
+ * timers. When every port has all of its Identifiers in use another ephemeral port is
+ * opened, up to the configured maximum.
+ * Callers never block on the socket, they get a future which is completed by a selector thread,
+ * so dependent stages should use the async variants to keep work off that thread.
+ */
+class RadiusClient {
+
+    private static final Log log = LogFactory.getLog(RadiusClient.class);
+    private static final long DRAIN_CHECK_INTERVAL = 100;
+
+    private final List<RadiusEndpoint> endpoints = new CopyOnWriteArrayList<>();
+    private final RadiusSelector[] selectors;
+    private final int maxEndpoints;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor
+     * Start the selector threads and open the pool of ports.
+     *
+     * @param localPorts      the local ports of the pool, 0 for an ephemeral port.
+     * @param maxEndpoints    how many ports may be open when the pool runs out of Identifiers.
+     * @param selectorThreads the number of selector threads to read the ports, at most one per port
+     *                        the pool may grow to.
+     * @throws IOException if a channel or selector can not be opened.
+     */
+    RadiusClient(int[] localPorts, int maxEndpoints, int selectorThreads) throws IOException {
+
+        this.maxEndpoints = Math.max(maxEndpoints, localPorts.length);
+        // Sized for the ports the pool may grow to, the ports opened later are spread over them too
+        selectors = new RadiusSelector[Math.max(1, Math.min(selectorThreads, this.maxEndpoints))];
+        try {
+            for (int i = 0; i < selectors.length; i++) {
+                selectors[i] = new RadiusSelector("CASQUE-RADIUS-Selector-" + i);
+            }
+            for (int localPort : localPorts) {
+                openEndpoint(localPort);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request without waiting for the reply.
+     * The packet is resent if no reply arrives within the server's retransmission timeout,
+     * backing off on each try. The future completes with a
+     * RADIUS_ERROR response once every try has timed out. It completes straight away with a
+     * local error response, see RadiusResponse.isLocal(): RADIUS_ERROR if the client is closed or
+     * no packet Identifier is free on any port, ATTRIBUTE_ERROR if an attribute is too long.
+     *
+     * @param uid    the user name to send
+     * @param pass   the password to send
+     * @param state  the RADIUS state value to send
+     * @param server the server address and port.
+     * @param rtt    the round trip time estimator of the server.
+     * @param secret the shared secret.
+     * @param tries  how many times the request is sent before giving up.
+     * @return future completed with the reply.
+     */
+    CompletableFuture<RadiusResponse> send(String uid, String pass, byte[] state, InetSocketAddress server,
+                                           RttEstimator rtt, byte[] secret, int tries) {
+
+        if (!running) {
+            return CompletableFuture.completedFuture(RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+        }
+        RadiusEndpoint endpoint = leastOutstanding();
+        int id = endpoint == null ? -1 : endpoint.allocate();
+        if (id < 0) {
+            synchronized (this) {
+                // Senders outside the lock may take the Identifier found, so look again until
+                // one is allocated or the pool can not grow
+                while (id < 0) {
+                    endpoint = leastOutstanding();
+                    if (endpoint == null) {
+                        endpoint = expand();
+                        if (endpoint == null) {
+                            break;
+                        }
+                    }
+                    id = endpoint.allocate();
+                }
+            }
+        }
+        if (id < 0) {
+            log.error("No RADIUS packet Identifier available, " + endpoints.size()
+                    + " ports have all their requests outstanding");
+            return CompletableFuture.completedFuture(RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+        }
+
+        ByteBuffer buffer = RadiusBufferPool.acquire();
+        int length = RadiusPacket.encodeRequest(buffer.array(), id, uid, pass, state, secret);
+        if (length < 0) {
+            endpoint.release(id);
+            RadiusBufferPool.release(buffer);
+            log.error("RADIUS request attributes are too long to send");
+            return CompletableFuture.completedFuture(RadiusResponse.localError(length));
+        }
+        buffer.limit(length);
+        RadiusExchange exchange = new RadiusExchange(endpoint, id, buffer, server, rtt, secret,
+                Math.max(1, tries));
+        endpoint.register(exchange);
+        endpoint.getSelector().submit(exchange);
+        return exchange.getFuture();
+    }
+
+    /**
+     * Get the number of ports open.
+     *
+     * @return the pool size.
+     */
+    int getPoolSize() {
+
+        return endpoints.size();
+    }
+
+    /**
+     * Get the number of selector threads.
+     *
+     * @return the number of threads reading the ports.
+     */
+    int getSelectorCount() {
+
+        return selectors.length;
+    }
+
+    /**
+     * Get the number of requests waiting for a reply.
+     *
+     * @return the outstanding requests on all ports.
+     */
+    int getOutstanding() {
+
+        int outstanding = 0;
+        for (RadiusEndpoint endpoint : endpoints) {
+            outstanding += endpoint.getOutstanding();
+        }
+        return outstanding;
+    }
+
+    /**
+     * Close the client once its outstanding requests have finished, without blocking.
+     * Used when the client is replaced, new requests go to the new client while this one
+     * drains. The client is closed anyway after the timeout.
+     *
+     * @param timeout milliseconds to wait for the outstanding requests.
+     */
+    void closeWhenIdle(final long timeout) {
+
+        Thread thread = new Thread(() -> {
+            long deadline = System.currentTimeMillis() + timeout;
+            int idleChecks = 0;
+            try {
+                // Idle twice in a row, a request failing over may briefly hold no Identifier
+                while (idleChecks < 2 && System.currentTimeMillis() < deadline) {
+                    idleChecks = getOutstanding() == 0 ? idleChecks + 1 : 0;
+                    Thread.sleep(DRAIN_CHECK_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            close();
+        }, "CASQUE-RADIUS-Drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the selector threads and close the ports.
+     * Outstanding requests complete with a local RADIUS_ERROR response.
+     */
+    void close() {
+
+        running = false;
+        for (RadiusSelector selector : selectors) {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    /**
+     * Find the port with the fewest outstanding requests that still has a free Identifier.
+     *
+     * @return the port or null if every port is full.
+     */
+    private RadiusEndpoint leastOutstanding() {
+
+        RadiusEndpoint least = null;
+        int leastOutstanding = RadiusIdentifierAllocator.ID_SPACE;
+        for (RadiusEndpoint endpoint : endpoints) {
+            int outstanding = endpoint.getOutstanding();
+            if (outstanding < leastOutstanding) {
+                least = endpoint;
+                leastOutstanding = outstanding;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Open an ephemeral port if the pool has not reached its maximum size.
+     * Called holding the client lock so only one thread opens a port at a time.
+     *
+     * @return the port or null if the pool is at its maximum size.
+     */
+    private RadiusEndpoint expand() {
+
+        if (endpoints.size() >= maxEndpoints) {
+            return null;
+        }
+        try {
+            RadiusEndpoint endpoint = openEndpoint(0);
+            if (log.isDebugEnabled()) {
+                log.debug("RADIUS Identifiers exhausted, opened port " + endpoint.getLocalPort());
+            }
+            return endpoint;
+        } catch (IOException e) {
+            log.error("Error opening an additional RADIUS port", e);
+            return null;
+        }
+    }
+
+    /**
+     * Open a port and hand it to the next selector thread in turn.
+     *
+     * @param port the local port to bind.
+     * @return the new port.
+     * @throws IOException if the channel can not be opened.
+     */
+    private RadiusEndpoint openEndpoint(int port) throws IOException {
+
+        RadiusSelector selector = selectors[endpoints.size() % selectors.length];
+        RadiusEndpoint endpoint = new RadiusEndpoint(port, selector);
+        endpoints.add(endpoint);
+        selector.add(endpoint);
+        return endpoint;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Provides the MD5 digests used to hide passwords and check response authenticators.
+ * Each thread keeps its own digest, so a digest is neither shared between threads
+ * nor cloned for every packet.
+ */
+final class RadiusDigest {
+
+    private static final Log log = LogFactory.getLog(RadiusDigest.class);
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(RadiusDigest::newMD5);
+
+    private RadiusDigest() {
+
+    }
+
+    /**
+     * Get this thread's MD5 message digest, reset and ready for use.
+     * The digest must not be handed to another thread.
+     *
+     * @return MD5 message digest object or null if MD5 is not available.
+     */
+    static MessageDigest getMD5() {
+
+        MessageDigest md = md5.get();
+        if (md == null) {
+            md5.remove();   // Try again next time rather than caching the failure
+            return null;
+        }
+        md.reset();
+        return md;
+    }
+
+    private static MessageDigest newMD5() {
+
+        try {
+            return MessageDigest.getInstance(CasqueAuthenticatorConstants.MD5);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("Error while getting an MD5 Instance. ", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One local UDP source port of the RADIUS client.
+ * Holds the non-blocking channel, the Identifiers in use on it and
+ * the outstanding request for each of them.
+ */
+class RadiusEndpoint {
+
+    private final DatagramChannel channel;
+    private final RadiusSelector selector;
+    private final RadiusIdentifierAllocator identifiers = new RadiusIdentifierAllocator();
+    private final AtomicReferenceArray<RadiusExchange> pending =
+            new AtomicReferenceArray<>(RadiusIdentifierAllocator.ID_SPACE);
+
+    /**
+     * Constructor
+     * Open and bind the channel in non-blocking mode.
+     *
+     * @param localPort the local port to bind, 0 for an ephemeral port.
+     * @param selector  the selector thread which reads this port.
+     * @throws IOException if the channel can not be opened.
+     */
+    RadiusEndpoint(int localPort, RadiusSelector selector) throws IOException {
+
+        this.selector = selector;
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(localPort));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    DatagramChannel getChannel() {
+
+        return channel;
+    }
+
+    RadiusSelector getSelector() {
+
+        return selector;
+    }
+
+    int getLocalPort() {
+
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Allocate a free Identifier on this port.
+     *
+     * @return the Identifier, or -1 if this port has 256 requests outstanding.
+     */
+    int allocate() {
+
+        return identifiers.allocate();
+    }
+
+    /**
+     * Record the request sent with an allocated Identifier.
+     *
+     * @param exchange the outstanding request.
+     */
+    void register(RadiusExchange exchange) {
+
+        pending.set(exchange.getId(), exchange);
+    }
+
+    /**
+     * Get the outstanding request for an Identifier.
+     *
+     * @param id the Identifier from the reply.
+     * @return the request or null if none is outstanding.
+     */
+    RadiusExchange lookup(int id) {
+
+        return pending.get(id);
+    }
+
+    /**
+     * Forget a finished request and free its Identifier.
+     *
+     * @param exchange the finished request.
+     * @return true if this call released it, false if it had already been released.
+     */
+    boolean release(RadiusExchange exchange) {
+
+        if (pending.compareAndSet(exchange.getId(), exchange, null)) {
+            identifiers.release(exchange.getId());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Give back an Identifier that was allocated but never used.
+     *
+     * @param id the Identifier.
+     */
+    void release(int id) {
+
+        identifiers.release(id);
+    }
+
+    int getOutstanding() {
+
+        return identifiers.getOutstanding();
+    }
+
+    void close() throws IOException {
+
+        channel.close();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An outstanding RADIUS request waiting for its reply.
+ */
+class RadiusExchange implements Comparable<RadiusExchange> {
+
+    private final RadiusEndpoint endpoint;
+    private final int id;
+    private final ByteBuffer request;
+    private final InetSocketAddress server;
+    private final RttEstimator rttEstimator;
+    private final byte[] secret;
+    private final CompletableFuture<RadiusResponse> future = new CompletableFuture<>();
+    private int triesLeft;
+    private int transmissions = 0;
+    private long timeout = 0;
+    private volatile long sentAt;
+    private volatile long deadline;
+
+    /**
+     * Constructor
+     *
+     * @param endpoint     the port the request is sent from.
+     * @param id           the Identifier allocated on that port.
+     * @param request      the pooled buffer holding the request packet, from position 0 to its limit.
+     *                     It also holds the Request Authenticator used to verify the reply.
+     * @param server       the server address and port.
+     * @param rttEstimator the round trip time estimator of the server.
+     * @param secret       the shared secret the request was encoded with.
+     * @param tries        how many times the request may be sent.
+     */
+    RadiusExchange(RadiusEndpoint endpoint, int id, ByteBuffer request, InetSocketAddress server,
+                   RttEstimator rttEstimator, byte[] secret, int tries) {
+
+        this.endpoint = endpoint;
+        this.id = id;
+        this.request = request;
+        this.server = server;
+        this.rttEstimator = rttEstimator;
+        this.secret = secret;
+        this.triesLeft = tries;
+    }
+
+    RadiusEndpoint getEndpoint() {
+
+        return endpoint;
+    }
+
+    int getId() {
+
+        return id;
+    }
+
+    /**
+     * Get the request packet ready to be sent.
+     * Only the selector thread sends, so the position is simply rewound.
+     *
+     * @return the request buffer.
+     */
+    ByteBuffer getRequest() {
+
+        request.rewind();
+        return request;
+    }
+
+    /**
+     * Parse a reply against the Request Authenticator held in the request buffer.
+     *
+     * @param data   the buffer holding the reply packet from offset 0.
+     * @param length the number of bytes received.
+     * @return the RadiusResponse Object.
+     */
+    RadiusResponse parseReply(byte[] data, int length) {
+
+        return RadiusPacket.parseResponse(data, length, request.array(), 4, secret);
+    }
+
+    /**
+     * Hand the request buffer back to the pool once the request has finished.
+     */
+    void recycle() {
+
+        RadiusBufferPool.release(request);
+    }
+
+    InetSocketAddress getServer() {
+
+        return server;
+    }
+
+    CompletableFuture<RadiusResponse> getFuture() {
+
+        return future;
+    }
+
+    boolean isDone() {
+
+        return future.isDone();
+    }
+
+    /**
+     * Use up one try and set the time the reply is due.
+     * The first copy waits for the server's current retransmission timeout,
+     * each resent copy waits twice as long as the one before.
+     */
+    void sent() {
+
+        timeout = transmissions++ == 0 ? rttEstimator.getTimeout() : rttEstimator.backoff(timeout);
+        triesLeft--;
+        sentAt = System.nanoTime();
+        deadline = sentAt + timeout;
+    }
+
+    /**
+     * Feed the round trip time of the reply to the server's estimator,
+     * unless the request was resent and the reply may be to an earlier copy.
+     *
+     * @param receivedAt when the reply arrived, from System.nanoTime().
+     */
+    void replied(long receivedAt) {
+
+        if (transmissions == 1) {
+            rttEstimator.sample(receivedAt - sentAt);
+        }
+    }
+
+    /**
+     * Whether more than one copy of the request has been sent, so more than one reply may come back.
+     *
+     * @return true if the request was resent.
+     */
+    boolean isResent() {
+
+        return transmissions > 1;
+    }
+
+    boolean hasTriesLeft() {
+
+        return triesLeft > 0;
+    }
+
+    long getDeadline() {
+
+        return deadline;
+    }
+
+    @Override
+    public int compareTo(RadiusExchange other) {
+
+        return Long.compare(deadline - other.deadline, 0);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+/**
+ * Tracks the RADIUS packet Identifiers in use on one socket.
+ * A RADIUS client may only have one outstanding request per Identifier and source port,
+ * so each socket has 256 Identifiers to hand out. Identifiers are allocated round robin
+ * so a released Identifier is not reused straight away.
+ */
+class RadiusIdentifierAllocator {
+
+    static final int ID_SPACE = 256;
+
+    private final long[] inUse = new long[ID_SPACE / 64];
+    private int next = 0;
+    private volatile int outstanding = 0;
+
+    /**
+     * Allocate a free Identifier.
+     *
+     * @return the Identifier, or -1 if all 256 are in use.
+     */
+    synchronized int allocate() {
+
+        if (outstanding == ID_SPACE) {
+            return -1;
+        }
+        for (int i = 0; i < ID_SPACE; i++) {
+            int id = (next + i) & 0xff;
+            long bit = 1L << (id & 63);
+            if ((inUse[id >>> 6] & bit) == 0) {
+                inUse[id >>> 6] |= bit;
+                next = id + 1;
+                outstanding++;
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return an Identifier to the free set.
+     *
+     * @param id the Identifier to release.
+     */
+    synchronized void release(int id) {
+
+        long bit = 1L << (id & 63);
+        if ((inUse[id >>> 6] & bit) != 0) {
+            inUse[id >>> 6] &= ~bit;
+            outstanding--;
+        }
+    }
+
+    /**
+     * Get the number of Identifiers in use.
+     *
+     * @return the number of outstanding requests.
+     */
+    int getOutstanding() {
+
+        return outstanding;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the RADIUS round trips, exposed over JMX.
+ * The recording methods are lock free and allocation free once a server has been seen, they are
+ * called on the request and selector threads.
+ */
+public class RadiusMetrics implements RadiusMetricsMXBean {
+
+    private static final Log log = LogFactory.getLog(RadiusMetrics.class);
+    public static final String OBJECT_NAME = "org.wso2.carbon.identity.casque:type=RadiusMetrics";
+    static final int PHASE_REQUEST = 0;
+    static final int PHASE_CHALLENGE = 1;
+    private static final String[] PHASES = {"request", "challenge"};
+    /* Response types run from RADIUS_ERROR, -4, to ACCESS_CHALLENGE, 11. */
+    private static final int TYPE_OFFSET = -RadiusResponse.RADIUS_ERROR;
+    private static final int TYPE_COUNT = RadiusResponse.ACCESS_CHALLENGE + TYPE_OFFSET + 1;
+    private static final RadiusMetrics INSTANCE = new RadiusMetrics();
+
+    private final LongAdder inFlight = new LongAdder();
+    private volatile Counters counters = new Counters();
+
+    private RadiusMetrics() {
+
+    }
+
+    /**
+     * Get the metrics of the RADIUS client.
+     *
+     * @return the metrics.
+     */
+    public static RadiusMetrics get() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server.
+     */
+    public static void register() {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            log.error("Error registering the CASQUE RADIUS metrics MBean", e);
+        }
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server.
+     */
+    public static void unregister() {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.error("Error unregistering the CASQUE RADIUS metrics MBean", e);
+        }
+    }
+
+    /**
+     * A request has been accepted by sendRequestAsync.
+     */
+    void requestStarted() {
+
+        counters.requests.increment();
+        inFlight.increment();
+    }
+
+    /**
+     * A request has its final response, after any failover.
+     *
+     * @param phase the phase of the login.
+     * @param nanos the time since the request started.
+     * @param type  the response type.
+     */
+    void requestCompleted(int phase, long nanos, int type) {
+
+        inFlight.decrement();
+        Counters current = counters;
+        current.latencies[phase].record(nanos);
+        current.response(type);
+    }
+
+    /**
+     * A server has replied, or its last try has timed out.
+     *
+     * @param serverId the server id.
+     * @param phase    the phase of the login.
+     * @param nanos    the time since the request was first sent to the server.
+     */
+    void serverCompleted(String serverId, int phase, long nanos) {
+
+        Counters current = counters;
+        LatencyHistogram[] histograms = current.serverLatencies.get(serverId);
+        if (histograms == null) {
+            histograms = current.serverLatencies.computeIfAbsent(serverId, id -> newHistograms());
+        }
+        histograms[phase].record(nanos);
+    }
+
+    /**
+     * A reply was discarded as its authenticator did not match.
+     */
+    void replyDiscarded() {
+
+        counters.response(RadiusResponse.DIGEST_ERROR);
+    }
+
+    void retransmitted() {
+
+        counters.retransmissions.increment();
+    }
+
+    void timedOut() {
+
+        counters.timeouts.increment();
+    }
+
+    void duplicateReply() {
+
+        counters.duplicateReplies.increment();
+    }
+
+    @Override
+    public long getRequests() {
+
+        return counters.requests.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+
+        return inFlight.sum();
+    }
+
+    @Override
+    public int getOutstandingPackets() {
+
+        return Radius.getOutstandingPackets();
+    }
+
+    @Override
+    public long getRetransmissions() {
+
+        return counters.retransmissions.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+
+        return counters.timeouts.sum();
+    }
+
+    @Override
+    public long getDuplicateReplies() {
+
+        return counters.duplicateReplies.sum();
+    }
+
+    @Override
+    public Map<String, Long> getResponses() {
+
+        Counters current = counters;
+        Map<String, Long> responses = new LinkedHashMap<>();
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            long count = current.responses.get(i);
+            if (count > 0) {
+                responses.put(typeName(i - TYPE_OFFSET), count);
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+
+        Counters current = counters;
+        Map<String, LatencySnapshot> latencies = new LinkedHashMap<>();
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            latencies.put(PHASES[phase], current.latencies[phase].snapshot());
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getServerLatencies() {
+
+        Map<String, LatencySnapshot> latencies = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram[]> entry : counters.serverLatencies.entrySet()) {
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                latencies.put(entry.getKey() + "/" + PHASES[phase], entry.getValue()[phase].snapshot());
+            }
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, String> getCircuitStates() {
+
+        Map<String, String> states = new LinkedHashMap<>();
+        for (Map.Entry<String, CircuitBreaker.State> entry : Radius.getCircuitStates().entrySet()) {
+            states.put(entry.getKey(), entry.getValue().name());
+        }
+        return states;
+    }
+
+    @Override
+    public void reset() {
+
+        counters = new Counters();
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+
+        LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+        for (int phase = 0; phase < histograms.length; phase++) {
+            histograms[phase] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private static String typeName(int type) {
+
+        switch (type) {
+            case RadiusResponse.ACCESS_ACCEPT:
+                return "ACCESS_ACCEPT";
+            case RadiusResponse.ACCESS_REJECT:
+                return "ACCESS_REJECT";
+            case RadiusResponse.ACCESS_CHALLENGE:
+                return "ACCESS_CHALLENGE";
+            case RadiusResponse.PACKET_LENGTH_ERROR:
+                return "PACKET_LENGTH_ERROR";
+            case RadiusResponse.DIGEST_ERROR:
+                return "DIGEST_ERROR";
+            case RadiusResponse.ATTRIBUTE_ERROR:
+                return "ATTRIBUTE_ERROR";
+            case RadiusResponse.RADIUS_ERROR:
+                return "RADIUS_ERROR";
+            default:
+                return "TYPE_" + type;
+        }
+    }
+
+    /**
+     * The counters cleared by reset().
+     */
+    private static class Counters {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder retransmissions = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder duplicateReplies = new LongAdder();
+        private final AtomicLongArray responses = new AtomicLongArray(TYPE_COUNT);
+        private final LatencyHistogram[] latencies = newHistograms();
+        private final ConcurrentMap<String, LatencyHistogram[]> serverLatencies = new ConcurrentHashMap<>();
+
+        private void response(int type) {
+
+            int index = type + TYPE_OFFSET;
+            if (index >= 0 && index < TYPE_COUNT) {
+                responses.incrementAndGet(index);
+            }
+        }
+    }
+}
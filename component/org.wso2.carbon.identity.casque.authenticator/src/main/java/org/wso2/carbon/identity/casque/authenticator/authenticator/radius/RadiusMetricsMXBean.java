@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.util.Map;
+
+/**
+ * Management interface of the RADIUS client metrics.
+ * Registered as org.wso2.carbon.identity.casque:type=RadiusMetrics.
+ */
+public interface RadiusMetricsMXBean {
+
+    /**
+     * @return requests sent by the authenticator, failovers included once.
+     */
+    long getRequests();
+
+    /**
+     * @return requests waiting for their final response, across failovers.
+     */
+    long getInFlight();
+
+    /**
+     * @return RADIUS packet Identifiers in use, one for each packet waiting for a reply.
+     */
+    int getOutstandingPackets();
+
+    /**
+     * @return packets resent because no reply arrived within the retransmission timeout.
+     */
+    long getRetransmissions();
+
+    /**
+     * @return packets given up on after their last try timed out.
+     */
+    long getTimeouts();
+
+    /**
+     * @return replies to a resent packet that arrived after another copy's reply, and were dropped.
+     */
+    long getDuplicateReplies();
+
+    /**
+     * @return responses by type, including the replies discarded as DIGEST_ERROR.
+     */
+    Map<String, Long> getResponses();
+
+    /**
+     * @return end to end latency by phase, request for the first request of a login and
+     * challenge for the response to a challenge.
+     */
+    Map<String, LatencySnapshot> getLatencies();
+
+    /**
+     * @return latency of each try by server and phase, keyed server/phase.
+     */
+    Map<String, LatencySnapshot> getServerLatencies();
+
+    /**
+     * @return circuit breaker state by server.
+     */
+    Map<String, String> getCircuitStates();
+
+    /**
+     * Clear the counters and histograms.
+     */
+    void reset();
+}
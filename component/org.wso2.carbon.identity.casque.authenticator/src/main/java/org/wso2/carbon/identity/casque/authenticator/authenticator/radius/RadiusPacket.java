@@ -17,16 +17,18 @@
  */
 package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.casque.authenticator.authenticator.CasqueConfig;
-import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
 
 import java.io.Serializable;
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * RadiusPacket class.
@@ -44,11 +46,16 @@ public class RadiusPacket implements Serializable {
     private final static byte AUTHENTICATE_ONLY = 8;
     private final static byte REPLY_MESSAGE = 18;
     private final static byte STATE = 24;
+    private final static int MAX_ATTRIBUTE_LENGTH = 253;
+    public final static int MAX_PASSWORD_LENGTH = 128;     /* Bytes of UTF-8 a User-Password may hold. */
+    static final int MAX_PACKET_LENGTH = 4096;
 
     private byte[] reqAuth = null;
+    private final byte[] secret;
     private static SecureRandom random = new SecureRandom();
-    private static MessageDigest md5Digest = null;
-    private static int currentID = 1;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[16]);
+    private static final ThreadLocal<RadiusAttributes> ATTRIBUTES = ThreadLocal.withInitial(RadiusAttributes::new);
+    private static final AtomicInteger currentID = new AtomicInteger();
 
     static {
         random.setSeed(System.currentTimeMillis());
@@ -58,140 +65,161 @@ public class RadiusPacket implements Serializable {
 
     /**
      * Constructor
+     * Uses the shared secret of the current configuration.
      */
     public RadiusPacket() {
 
-        reqAuth = getRequestAuthenticator();
+        this(CasqueConfig.current().getRadiusSecret());
     }
 
     /**
-     * Get MD5 message digest.
+     * Constructor
      *
-     * @return MD5 message digest object.
+     * @param secret the shared secret.
      */
-    private static MessageDigest getMD5() {
-
-        if (md5Digest == null) {
-            try {
-                md5Digest = MessageDigest.getInstance(CasqueAuthenticatorConstants.MD5);
-            } catch (java.security.NoSuchAlgorithmException e) {
-                log.error("Error while getting an MD5 Instance. ", e);
-                return null;
-            }
-        }
+    public RadiusPacket(byte[] secret) {
 
-        MessageDigest md = null;
-        try {
-            md = (MessageDigest) md5Digest.clone();
-        } catch (CloneNotSupportedException e) {
-            log.error("Error while cloning the message digest. ", e);
-        }
-        return md;
+        this.secret = secret;
+        reqAuth = new byte[16];
     }
 
     /**
-     * Get the next RADIUS packet id.
+     * Add a String attribute to the buffer.
+     * The string is encoded as UTF-8 straight into the buffer.
      *
-     * @return the next id.
+     * @param buf    the buffer to add the attribute to.
+     * @param offset offset to add the attribute.
+     * @param str    the attribute value (a string).
+     * @param type   the attribute type.
+     * @return the offset after adding the attribute, or -1 if the value is too long.
      */
-    private static byte getNextID() {
+    private static int addString(byte[] buf, int offset, CharSequence str, byte type) {
 
-        ++currentID;
-        currentID &= 0xff;
-        return (byte) (currentID & 0xff);
+        int end = putUtf8(buf, offset + 2, offset + 2 + MAX_ATTRIBUTE_LENGTH, str);
+        if (end < 0) {
+            return -1;
+        }
+        buf[offset] = type;                         // Attribute type
+        buf[offset + 1] = (byte) (end - offset);    // Length of attribute
+        return end;
     }
 
     /**
-     * Add String to the buffer
+     * Encode a string as UTF-8 into the buffer without an intermediate array.
      *
-     * @param tempBuffer the buffer to add the attribute to.
-     * @param offset     offset to add the attribute.
-     * @param str        the attribute value (a string).
-     * @param type       the attribute type.
-     * @return the offset after adding the attribute
+     * @param buf    the buffer.
+     * @param offset where to write the first byte.
+     * @param limit  the offset the encoded string must not pass.
+     * @param str    the string.
+     * @return the offset after the encoded string, or -1 if it does not fit.
      */
-    private static int addString(byte[] tempBuffer, int offset, String str, byte type) {
-
-        if (StringUtils.isEmpty(str)) return offset;
-        byte[] strBytes = str.getBytes();
-        return addByteArray(tempBuffer, offset, strBytes, type);
+    private static int putUtf8(byte[] buf, int offset, int limit, CharSequence str) {
+
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            int c = str.charAt(i);
+            if (c < 0x80) {
+                if (offset + 1 > limit) {
+                    return -1;
+                }
+                buf[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                if (offset + 2 > limit) {
+                    return -1;
+                }
+                buf[offset++] = (byte) (0xc0 | (c >> 6));
+                buf[offset++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < length
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                if (offset + 4 > limit) {
+                    return -1;
+                }
+                c = Character.toCodePoint((char) c, str.charAt(++i));
+                buf[offset++] = (byte) (0xf0 | (c >> 18));
+                buf[offset++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+                buf[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[offset++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                if (offset + 3 > limit) {
+                    return -1;
+                }
+                if (Character.isSurrogate((char) c)) {
+                    c = '?';    // Unpaired surrogate, as String.getBytes() would replace it
+                }
+                buf[offset++] = (byte) (0xe0 | (c >> 12));
+                buf[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[offset++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return offset;
     }
 
     /**
      * Add ByteArray to the buffer
      *
-     * @param tempBuffer the buffer to add the attribute to.
-     * @param offset     offset to add the attribute.
-     * @param array      the attribute value (a byte array).
-     * @param type       the attribute type.
-     * @return the offset after adding the attribute
+     * @param buf    the buffer to add the attribute to.
+     * @param offset offset to add the attribute.
+     * @param array  the attribute value (a byte array).
+     * @param type   the attribute type.
+     * @return the offset after adding the attribute, or -1 if the value is too long.
      */
-    private static int addByteArray(byte[] tempBuffer, int offset, byte[] array, byte type) {
+    private static int addByteArray(byte[] buf, int offset, byte[] array, byte type) {
 
         int length = array.length;
-        tempBuffer[offset++] = type;                // Attribute type
-        tempBuffer[offset++] = (byte) (length + 2);    // Length of attribute
-        System.arraycopy(array, 0, tempBuffer, offset, length);
+        if (length > MAX_ATTRIBUTE_LENGTH) {
+            return -1;
+        }
+        buf[offset++] = type;                // Attribute type
+        buf[offset++] = (byte) (length + 2);    // Length of attribute
+        System.arraycopy(array, 0, buf, offset, length);
         return offset + length;
     }
 
-    /**
-     * Add a USER-NAME attribute to the buffer
-     *
-     * @param tempBuffer the buffer to add the attribute to.
-     * @param offset     offset to add the attribute.
-     * @param uid        the user name.
-     * @return the offset after adding the user-name attribute
-     */
-    private static int addUserName(byte[] tempBuffer, int offset, String uid) {
-
-        if (StringUtils.isEmpty(uid)) return offset;
-        return addString(tempBuffer, offset, uid, USER_NAME);
-    }
-
     /**
      * Add a USER-PASSWORD attribute to the buffer
      * The user-password is hidden using MD5 hash of the shared
-     * secret and request authenticator.
+     * secret and request authenticator, in place in the buffer.
      * See RFC 2865, https://tools.ietf.org/html/rfc2865
      *
-     * @param tempBuffer the buffer to add the attribute to.
-     * @param offset     offset to add the attribute.
-     * @param password   the password.
-     * @return the offset after adding the user-password attribute
+     * @param buf      the buffer to add the attribute to, holding the request authenticator.
+     * @param offset   offset to add the attribute.
+     * @param password the password.
+     * @param secret   the shared secret.
+     * @return the offset after adding the user-password attribute, or -1 on error.
      */
-    private static int addPassword(byte[] tempBuffer, int offset, String password) {
-
-        if (StringUtils.isEmpty(password)) return offset;
+    static int addPassword(byte[] buf, int offset, CharSequence password, byte[] secret) {
 
-        byte[] pass = password.getBytes();
-        int passLength = (pass.length + 15) & ~0xf;
-        System.arraycopy(pass, 0, tempBuffer, offset + 2, pass.length);
-        MessageDigest messageDigest = getMD5();
+        int start = offset + 2;
+        int end = putUtf8(buf, start, start + MAX_PASSWORD_LENGTH, password);
+        if (end < 0) {
+            return -1;
+        }
+        int passLength = (end - start + 15) & ~0xf;
+        Arrays.fill(buf, end, start + passLength, (byte) 0);    // Pad with nulls
+        MessageDigest messageDigest = RadiusDigest.getMD5();
 
         if (messageDigest != null) {
-            messageDigest.update(CasqueConfig.radiusSecret);
-            messageDigest.update(tempBuffer, 4, 16);
-
-            byte[] digest = messageDigest.digest();
-            tempBuffer[offset++] = USER_PASSWORD;                // USER_PASSWORD
-            tempBuffer[offset++] = (byte) (passLength + 2);     // Length of USER_PASSWORD attribute
-            int i;
-            for (i = 0; i < 16; i++) {
-                tempBuffer[i + offset] ^= digest[i];
-            }
-            while (i < passLength) {
-                int k = i + offset;
-                messageDigest.reset();
-                messageDigest.update(CasqueConfig.radiusSecret);
-                messageDigest.update(tempBuffer, k - 16, 16);
-                digest = messageDigest.digest();
-                for (int j = 0; j < 16; j++) {
-                    tempBuffer[k + j] ^= digest[j];
+            byte[] digest = SCRATCH.get();
+            buf[offset] = USER_PASSWORD;                    // USER_PASSWORD
+            buf[offset + 1] = (byte) (passLength + 2);      // Length of USER_PASSWORD attribute
+            int previous = 4;                               // b1 = MD5(S + RA)
+            try {
+                for (int i = 0; i < passLength; i += 16) {
+                    messageDigest.reset();
+                    messageDigest.update(secret);
+                    messageDigest.update(buf, previous, 16);
+                    messageDigest.digest(digest, 0, 16);
+                    int k = start + i;
+                    for (int j = 0; j < 16; j++) {
+                        buf[k + j] ^= digest[j];
+                    }
+                    previous = k;                           // bi = MD5(S + c(i-1))
                 }
-                i += 16;
+            } catch (DigestException e) {
+                log.error("Error while hiding the user password. ", e);
+                return -1;
             }
-            return offset + passLength;
+            return start + passLength;
         }
         return -1;
     }
@@ -215,22 +243,53 @@ public class RadiusPacket implements Serializable {
     }
 
     /**
-     * Add the STATE attribute to the buffer
+     * Encode a RADIUS Access-Request into a buffer.
+     * Writes a new random Request Authenticator and the uid, password and state values
+     * as RADIUS attributes. Nothing is allocated, so the send path can reuse pooled buffers.
      *
-     * @param buf    the buffer to add the attribute to.
-     * @param offset offset to add the attribute.
-     * @param state  the state value.
-     * @return the offset after adding the state attribute
+     * @param buf        the buffer, at least MAX_PACKET_LENGTH bytes.
+     * @param identifier the packet Identifier, allocated by the caller so it is unique
+     *                   among the requests outstanding on the sending socket.
+     * @param uid        the user name
+     * @param pass       the password
+     * @param state      the state value.
+     * @param secret     the shared secret.
+     * @return the packet length, or RadiusResponse.ATTRIBUTE_ERROR if an attribute is too long.
      */
-    private static int addState(byte[] buf, int offset, byte[] state) {
+    static int encodeRequest(byte[] buf, int identifier, CharSequence uid, CharSequence pass, byte[] state,
+                             byte[] secret) {
+
+        buf[0] = RadiusResponse.ACCESS_REQUEST;
+        buf[1] = (byte) identifier;
+        byte[] auth = SCRATCH.get();
+        random.nextBytes(auth);
+        System.arraycopy(auth, 0, buf, 4, 16);
+        int offset = 20;
+        if (uid != null && uid.length() > 0) {
+            offset = addString(buf, offset, uid, USER_NAME);
+        }
+        if (offset > 0 && pass != null && pass.length() > 0) {
+            offset = addPassword(buf, offset, pass, secret);
+        }
+        if (offset > 0 && state != null && state.length > 0) {
+            offset = addByteArray(buf, offset, state, STATE);
+        }
+        if (offset < 0) {
+            return RadiusResponse.ATTRIBUTE_ERROR;
+        }
+
+        offset = addServiceType(buf, offset); //AUTHENTICATE_ONLY
 
-        if (state == null) return offset;
-        return addByteArray(buf, offset, state, STATE);
+        buf[2] = (byte) ((offset >> 8) & 0xff);
+        buf[3] = (byte) (offset & 0xff);
+        return offset;
     }
 
     /**
      * Build a RADIUS Request Packet Buffer
      * Add the uid, password and state values as RADIUS attributes.
+     * The packet Identifier is the next of a counter shared by every caller, as before the
+     * client allocated Identifiers per socket.
      *
      * @param uid   the user name
      * @param pass  offset to add the attribute.
@@ -239,58 +298,33 @@ public class RadiusPacket implements Serializable {
      */
     public byte[] formRequestPacket(String uid, String pass, byte[] state) {
 
-        byte[] tempBuffer = new byte[256];
-        tempBuffer[0] = 1;   // ACCESS_REQUEST;
-        tempBuffer[1] = getNextID();
-        System.arraycopy(reqAuth, 0, tempBuffer, 4, 16);
-        int offset = 20;
-        if (StringUtils.isNotEmpty(uid) && uid.length() > 0)
-            offset = addUserName(tempBuffer, offset, uid);
-        if (pass != null && pass.length() > 0)
-            offset = addPassword(tempBuffer, offset, pass);
-        if (state != null && state.length > 0)
-            offset = addState(tempBuffer, offset, state);
-
-        offset = addServiceType(tempBuffer, offset); //AUTHENTICATE_ONLY
-
-        tempBuffer[2] = (byte) ((offset >> 8) & 0xff);
-        tempBuffer[3] = (byte) (offset & 0xff);
-        byte[] b = new byte[offset];
-        System.arraycopy(tempBuffer, 0, b, 0, offset);
-        return b;
+        return formRequestPacket(currentID.incrementAndGet() & 0xff, uid, pass, state);
     }
 
     /**
-     * Generate a new random RADIUS Request Authenticator
-     *
-     * @return the 16 byte authenticator
-     */
-    private static byte[] getRequestAuthenticator() {
-
-        byte[] r = new byte[16];
-        random.nextBytes(r);
-        return r;
-    }
-
-    /**
-     * Search for the attribute type in the attribute list
-     * and return the attribute value.
+     * Build a RADIUS Request Packet Buffer
+     * Add the uid, password and state values as RADIUS attributes.
      *
-     * @param type       the attribute type to look for.
-     * @param attributes the list of attribute types and indexes.
-     * @param packetData the response packet holding the attribute values.
-     * @return the attribute value or null if not found.
+     * @param identifier the packet Identifier, allocated by the caller so it is unique
+     *                   among the requests outstanding on the sending socket.
+     * @param uid        the user name
+     * @param pass       offset to add the attribute.
+     * @param state      the state value.
+     * @return the buffer
      */
-    private static byte[] getAttribute(int type, byte[][] attributes, byte[] packetData) {
+    public byte[] formRequestPacket(int identifier, String uid, String pass, byte[] state) {
 
-        for (byte[] attribute : attributes) {
-            if (attribute[0] == type) {
-                byte[] att = new byte[(attribute[2] & 0xff)];
-                System.arraycopy(packetData, attribute[1], att, 0, att.length);
-                return att;
+        ByteBuffer tempBuffer = RadiusBufferPool.acquire();
+        try {
+            int length = encodeRequest(tempBuffer.array(), identifier, uid, pass, state, secret);
+            if (length < 0) {
+                throw new IllegalArgumentException("RADIUS attribute too long");
             }
+            System.arraycopy(tempBuffer.array(), 4, reqAuth, 0, 16);
+            return Arrays.copyOf(tempBuffer.array(), length);
+        } finally {
+            RadiusBufferPool.release(tempBuffer);
         }
-        return null;
     }
 
     /**
@@ -319,62 +353,79 @@ public class RadiusPacket implements Serializable {
      * Check the packet lengths and for a valid MD5 hash
      * Get the response type, challenge and state values
      * and package them in a RadiusResponse Object.
+     * The attributes are read in place, only the challenge and state are copied.
      *
      * @param packet the RADIUS Packet.
      * @return the RadiusResponse Object.
      */
     public RadiusResponse parsePacket(DatagramPacket packet) {
 
-        int packetLength = packet.getLength();
-        if ((packetLength < 20) || (packetLength > 4096)) {
+        return parseResponse(packet.getData(), packet.getLength(), reqAuth, 0, secret);
+    }
+
+    /**
+     * Parse a RADIUS Response Packet against the Request Authenticator of the request it answers.
+     * The packet and the authenticator are read in place, so the selector can pass its receive
+     * buffer and the pooled request buffer.
+     *
+     * @param data         the buffer holding the RADIUS Packet from offset 0.
+     * @param packetLength the number of bytes received.
+     * @param auth         the buffer holding the Request Authenticator.
+     * @param authOffset   the offset of the Request Authenticator in the buffer.
+     * @param secret       the shared secret.
+     * @return the RadiusResponse Object.
+     */
+    static RadiusResponse parseResponse(byte[] data, int packetLength, byte[] auth, int authOffset,
+                                        byte[] secret) {
+
+        if ((packetLength < 20) || (packetLength > MAX_PACKET_LENGTH)) {
             return new RadiusResponse(RadiusResponse.PACKET_LENGTH_ERROR);
         }
 
-        byte[] tempBuffer = packet.getData();
-        int dataLength = (tempBuffer[2] & 0xff) * 256 + (tempBuffer[3] & 0xff);
-        if (packetLength < dataLength) {
+        int dataLength = (data[2] & 0xff) * 256 + (data[3] & 0xff);
+        if ((packetLength < dataLength) || (dataLength < 20)) {
             return new RadiusResponse(RadiusResponse.PACKET_LENGTH_ERROR);
         }
 
         byte[] challenge = null;
         byte[] state = null;
-        byte[] digest = new byte[16];
-        System.arraycopy(tempBuffer, 4, digest, 0, 16);
-        System.arraycopy(reqAuth, 0, tempBuffer, 4, 16);
-        MessageDigest md = getMD5();
+        MessageDigest md = RadiusDigest.getMD5();
 
         if (md != null) {
-            md.update(tempBuffer, 0, dataLength);
-            md.update(CasqueConfig.radiusSecret);
-
-            byte[] digest2 = md.digest();
+            // The response authenticator is computed over the packet with our request authenticator
+            // in place of its own. Digest the parts around it so the buffer is left untouched and
+            // the same reply can be checked against several outstanding requests.
+            md.update(data, 0, 4);
+            md.update(auth, authOffset, 16);
+            md.update(data, 20, dataLength - 20);
+            md.update(secret);
+
+            byte[] digest2 = SCRATCH.get();
+            try {
+                md.digest(digest2, 0, 16);
+            } catch (DigestException e) {
+                log.error("Error while checking the response authenticator. ", e);
+                return new RadiusResponse(RadiusResponse.DIGEST_ERROR);
+            }
 
             for (int i = 0; i < 16; i++) {
-                if (digest[i] != digest2[i]) {
+                if (data[i + 4] != digest2[i]) {
                     return new RadiusResponse(RadiusResponse.DIGEST_ERROR);
                 }
             }
 
-            int offset = 20;
-            int index = 0;
-            byte[][] attributes = new byte[16][3];
-
-            while ((offset < dataLength) && (index < attributes.length)) {
-                attributes[index][0] = tempBuffer[offset];
-                attributes[index][1] = (byte) (offset + 2);
-                int l = (tempBuffer[offset + 1] & 0xff);
-                if (l < 2) {
+            RadiusAttributes attributes = ATTRIBUTES.get();
+            try {
+                if (!attributes.wrap(data, 20, dataLength)) {
                     return new RadiusResponse(RadiusResponse.ATTRIBUTE_ERROR);
                 }
-                attributes[index][2] = (byte) (l - 2);
-                offset += l;
-                index++;
+                challenge = attributes.copyValue(REPLY_MESSAGE);
+                urlEncode(challenge);
+                state = attributes.copyValue(STATE);
+            } finally {
+                attributes.clear();
             }
-
-            challenge = getAttribute(REPLY_MESSAGE, attributes, tempBuffer);
-            urlEncode(challenge);
-            state = getAttribute(STATE, attributes, tempBuffer);
         }
-        return new RadiusResponse(tempBuffer[0], challenge, state);
+        return new RadiusResponse(data[0], challenge, state);
     }
 }
\ No newline at end of file
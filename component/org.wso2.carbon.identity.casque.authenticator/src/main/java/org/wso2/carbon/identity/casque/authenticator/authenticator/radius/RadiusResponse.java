@@ -30,6 +30,9 @@ public class RadiusResponse implements Serializable {
     private int type;
     private byte[] state;
     private byte[] message;
+    private transient String challenge;
+    private String serverId;
+    private boolean local;
 
     public final static int ACCESS_CHALLENGE = 11;
     public final static int ACCESS_REJECT = 3;
@@ -63,6 +66,30 @@ public class RadiusResponse implements Serializable {
         this.message = message;
     }
 
+    /**
+     * Create the response of a request that failed on this host, without a packet reaching
+     * a server or the wait for its reply being cut short, so it says nothing about the server.
+     *
+     * @param type the error type.
+     * @return the response.
+     */
+    static RadiusResponse localError(int type) {
+
+        RadiusResponse response = new RadiusResponse(type);
+        response.local = true;
+        return response;
+    }
+
+    /**
+     * Check if the request failed on this host rather than at, or on the way to, a server.
+     *
+     * @return true for a local failure.
+     */
+    public boolean isLocal() {
+
+        return local;
+    }
+
     /**
      * Get the CASQUE SNR Challenge
      *
@@ -70,10 +97,10 @@ public class RadiusResponse implements Serializable {
      */
     public String getChallenge() {
 
-        if (message == null) {
-            message = new byte[]{'N', 'O', 'N', 'E'};
+        if (challenge == null) {
+            challenge = message == null ? "NONE" : new String(message);
         }
-        return new String(message);
+        return challenge;
     }
 
     /**
@@ -86,6 +113,27 @@ public class RadiusResponse implements Serializable {
         return state;
     }
 
+    /**
+     * Get the id of the server that sent the response.
+     * A challenge must be answered by the same server.
+     *
+     * @return the server id or null if no server replied.
+     */
+    public String getServerId() {
+
+        return serverId;
+    }
+
+    /**
+     * Set the id of the server that sent the response.
+     *
+     * @param serverId the server id.
+     */
+    void setServerId(String serverId) {
+
+        this.serverId = serverId;
+    }
+
     /**
      * Get the Response Type.
      * ACCESS ACCEPT, ACCESS REJECT, ACCESS CHALLENGE or an Error
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A selector thread of the RADIUS client.
+ * Owns a share of the client's ports: reads their replies, hands each one to the outstanding
+ * request whose Identifier and Request Authenticator it matches, and resends requests whose
+ * reply is overdue. The client spreads its ports over several of these so receive work
+ * runs on more than one core.
+ * Every copy of a resent request carries the same Identifier and Request Authenticator, so the
+ * first reply to any copy completes it. The request then keeps its Identifier until the last
+ * copy's timer would have run out, the replies to the other copies are dropped as duplicates
+ * without checking their authenticator, and can not be taken for the reply to a new request.
+ * Every packet, the first copy included, is sent by this thread. A reply can then never be
+ * handled, and the request's pooled buffer recycled, while a send from that buffer is under way.
+ */
+class RadiusSelector implements Runnable {
+
+    private static final Log log = LogFactory.getLog(RadiusSelector.class);
+    private static final int RECEIVE_BUFFER_SIZE = RadiusPacket.MAX_PACKET_LENGTH;
+
+    private final Selector selector;
+    private final List<RadiusEndpoint> endpoints = new ArrayList<>();
+    private final Queue<RadiusEndpoint> added = new ConcurrentLinkedQueue<>();
+    private final Queue<RadiusExchange> submitted = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<RadiusExchange> deadlines = new PriorityQueue<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor
+     * Open the selector and start its thread.
+     *
+     * @param name the thread name.
+     * @throws IOException if the selector can not be opened.
+     */
+    RadiusSelector(String name) throws IOException {
+
+        this.selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hand a port to this selector thread.
+     *
+     * @param endpoint the port to read.
+     */
+    void add(RadiusEndpoint endpoint) {
+
+        added.add(endpoint);
+        selector.wakeup();
+    }
+
+    /**
+     * Hand a request to this selector thread, which sends it from one of its ports and arms
+     * its reply timer.
+     *
+     * @param exchange the request to send.
+     * @return false if the selector has been closed and the request was failed.
+     */
+    boolean submit(RadiusExchange exchange) {
+
+        submitted.add(exchange);
+        selector.wakeup();
+        if (!running) {
+            // Closed while we were submitting, the selector thread may already have drained the queue.
+            complete(exchange, RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop the selector thread and close its ports.
+     * Outstanding requests complete with a local RADIUS_ERROR response.
+     */
+    void close() {
+
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Send, or resend, the request and arm its reply timer.
+     * A send that fails, because the kernel could not buffer it or the server address can not
+     * be used, is treated like a lost packet and left to the timer.
+     *
+     * @param exchange the request to send.
+     */
+    private void transmit(RadiusExchange exchange) {
+
+        exchange.sent();
+        try {
+            exchange.getEndpoint().getChannel().send(exchange.getRequest(), exchange.getServer());
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not send the Datagram packet", e);
+        }
+    }
+
+    private void complete(RadiusExchange exchange, RadiusResponse response) {
+
+        release(exchange);
+        exchange.getFuture().complete(response);
+    }
+
+    /**
+     * Free the request's Identifier and buffer, unless already freed.
+     *
+     * @param exchange the finished request.
+     */
+    private void release(RadiusExchange exchange) {
+
+        if (exchange.getEndpoint().release(exchange)) {
+            exchange.recycle();
+        }
+    }
+
+    /**
+     * Receive replies and run the retransmission timers until closed.
+     */
+    @Override
+    public void run() {
+
+        try {
+            while (running) {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    // Keep serving the other requests, a request caught up in this is left to its timer
+                    log.error("Error in the RADIUS selector loop", e);
+                }
+            }
+        } catch (IOException e) {
+            log.error("RADIUS selector loop failed", e);
+        } finally {
+            running = false;
+            shutdown();
+        }
+    }
+
+    /**
+     * Wait for replies or the next reply timer, then read the replies, send the submitted
+     * requests and run the timers that are due.
+     *
+     * @throws IOException if the selector or a channel fails.
+     */
+    private void poll() throws IOException {
+
+        long timeout = 0;
+        RadiusExchange next = deadlines.peek();
+        if (next != null) {
+            timeout = Math.max(1, (next.getDeadline() - System.nanoTime()) / 1000000L);
+        }
+        selector.select(timeout);
+        RadiusEndpoint endpoint;
+        while ((endpoint = added.poll()) != null) {
+            endpoints.add(endpoint);
+            endpoint.getChannel().register(selector, SelectionKey.OP_READ, endpoint);
+            // Replies may have arrived before the channel was registered.
+            receive(endpoint);
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            receive((RadiusEndpoint) key.attachment());
+        }
+        RadiusExchange exchange;
+        while ((exchange = submitted.poll()) != null) {
+            transmit(exchange);
+            deadlines.add(exchange);
+        }
+        expire();
+    }
+
+    /**
+     * Read every datagram waiting on a port.
+     *
+     * @param endpoint the port to read.
+     * @throws IOException if the channel fails.
+     */
+    private void receive(RadiusEndpoint endpoint) throws IOException {
+
+        SocketAddress source;
+        receiveBuffer.clear();
+        while ((source = endpoint.getChannel().receive(receiveBuffer)) != null) {
+            dispatch(endpoint, receiveBuffer.array(), receiveBuffer.position(), source);
+            receiveBuffer.clear();
+        }
+    }
+
+    /**
+     * Find the outstanding request a reply belongs to.
+     * The port and Identifier select the request, the response authenticator,
+     * which covers the Request Authenticator, confirms the match.
+     * The packet is parsed in place in the receive buffer, nothing is allocated for a reply
+     * that is discarded.
+     *
+     * @param endpoint the port the packet arrived on.
+     * @param data     the receive buffer holding the packet from offset 0.
+     * @param length   the number of bytes received.
+     * @param source   where the packet came from.
+     */
+    private void dispatch(RadiusEndpoint endpoint, byte[] data, int length, SocketAddress source) {
+
+        if (length < 20) {
+            if (log.isDebugEnabled()) {
+                log.debug("Discarding short RADIUS packet from " + source);
+            }
+            return;
+        }
+        int id = data[1] & 0xff;
+        RadiusExchange exchange = endpoint.lookup(id);
+        if (exchange != null && exchange.getServer().equals(source)) {
+            if (exchange.isDone()) {
+                RadiusMetrics.get().duplicateReply();
+                if (log.isDebugEnabled()) {
+                    log.debug("Discarding duplicate RADIUS reply, id " + id + " from " + source);
+                }
+                return;
+            }
+            RadiusResponse response = exchange.parseReply(data, length);
+            if (response.getType() != RadiusResponse.DIGEST_ERROR) {
+                exchange.replied(System.nanoTime());
+                if (exchange.isResent()) {
+                    // Held until its deadline, replies to the other copies may still be on the way
+                    exchange.getFuture().complete(response);
+                } else {
+                    complete(exchange, response);
+                }
+                return;
+            }
+            RadiusMetrics.get().replyDiscarded();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Discarding unmatched RADIUS reply, id " + id + " from " + source);
+        }
+    }
+
+    /**
+     * Resend or fail the requests whose reply timer has run out.
+     */
+    private void expire() {
+
+        long now = System.nanoTime();
+        RadiusExchange exchange;
+        while ((exchange = deadlines.peek()) != null && exchange.getDeadline() - now <= 0) {
+            deadlines.poll();
+            if (exchange.isDone()) {
+                // Answered, a resent request has held its Identifier until now
+                release(exchange);
+                continue;
+            }
+            if (exchange.hasTriesLeft()) {
+                RadiusMetrics.get().retransmitted();
+                transmit(exchange);
+                deadlines.add(exchange);
+            } else {
+                log.error("Error contacting the CASQUE SNR Server");
+                RadiusMetrics.get().timedOut();
+                complete(exchange, new RadiusResponse(RadiusResponse.RADIUS_ERROR));
+            }
+        }
+    }
+
+    /**
+     * Close the selector and its ports and fail whatever is still outstanding.
+     */
+    private void shutdown() {
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error("Error closing the RADIUS selector", e);
+        }
+        RadiusEndpoint endpoint;
+        while ((endpoint = added.poll()) != null) {
+            endpoints.add(endpoint);
+        }
+        for (RadiusEndpoint owned : endpoints) {
+            try {
+                owned.close();
+            } catch (IOException e) {
+                log.error("Error closing the RADIUS channel", e);
+            }
+        }
+        RadiusExchange exchange;
+        while ((exchange = submitted.poll()) != null) {
+            deadlines.add(exchange);
+        }
+        while ((exchange = deadlines.poll()) != null) {
+            complete(exchange, RadiusResponse.localError(RadiusResponse.RADIUS_ERROR));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The CASQUE SNR servers new requests are shared between.
+ * Keeps a circuit breaker and round trip time estimator for each server and orders the servers
+ * for a request, either by smooth weighted round robin or by lowest smoothed round trip time.
+ * Servers whose circuit is not closed go to the back of the order, and are only sent
+ * a request if their breaker lets it through.
+ * A server's address may be replaced when its host name is looked up again, its circuit and
+ * round trip time carry over as the server keeps its id.
+ */
+class RadiusServerPool {
+
+    private static final Log log = LogFactory.getLog(RadiusServerPool.class);
+
+    private final List<ServerState> servers = new ArrayList<>();
+    private final boolean leastLatency;
+
+    /**
+     * Constructor
+     *
+     * @param servers          the servers, in configured order.
+     * @param selection        weighted_round_robin or least_latency.
+     * @param failureThreshold failed requests in a row that open a server's circuit.
+     * @param openInterval     milliseconds a server's circuit stays open before it is probed.
+     * @param probeRequests    requests let through to a server while its circuit is half open.
+     * @param initialTimeout   the retransmission timeout in milliseconds before a server's first reply.
+     * @param minTimeout       the lower bound of the retransmission timeout in milliseconds.
+     * @param maxTimeout       the upper bound of the retransmission timeout in milliseconds.
+     */
+    RadiusServerPool(List<CasqueServer> servers, String selection, int failureThreshold, long openInterval,
+                     int probeRequests, long initialTimeout, long minTimeout, long maxTimeout) {
+
+        for (CasqueServer server : servers) {
+            this.servers.add(new ServerState(server,
+                    new CircuitBreaker(server.getId(), failureThreshold, openInterval, probeRequests),
+                    new RttEstimator(initialTimeout, minTimeout, maxTimeout)));
+        }
+        this.leastLatency = CasqueAuthenticatorConstants.LEAST_LATENCY.equals(selection);
+    }
+
+    /**
+     * Find a server by id.
+     *
+     * @param id the server id.
+     * @return the server or null if it is not in the pool.
+     */
+    CasqueServer get(String id) {
+
+        for (ServerState state : servers) {
+            if (state.server.getId().equals(id)) {
+                return state.server;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the servers with the addresses they were last resolved to.
+     *
+     * @return the servers, in configured order.
+     */
+    List<CasqueServer> getServers() {
+
+        List<CasqueServer> current = new ArrayList<>(servers.size());
+        for (ServerState state : servers) {
+            current.add(state.server);
+        }
+        return current;
+    }
+
+    /**
+     * Get the round trip time estimator of a server.
+     *
+     * @param server the server.
+     * @return the estimator.
+     */
+    RttEstimator getRttEstimator(CasqueServer server) {
+
+        return find(server).rtt;
+    }
+
+    /**
+     * Get the circuit breaker of a server.
+     *
+     * @param server the server.
+     * @return the circuit breaker.
+     */
+    CircuitBreaker getCircuitBreaker(CasqueServer server) {
+
+        return find(server).breaker;
+    }
+
+    /**
+     * Get the circuit breaker state of every server.
+     *
+     * @return the state by server id, in configured order.
+     */
+    Map<String, CircuitBreaker.State> getCircuitStates() {
+
+        Map<String, CircuitBreaker.State> states = new LinkedHashMap<>();
+        for (ServerState state : servers) {
+            states.put(state.server.getId(), state.breaker.getState());
+        }
+        return states;
+    }
+
+    /**
+     * Look up the servers' host names again and send new requests to any address that has changed.
+     * Runs on the resolver thread, a failed lookup keeps the old address. Requests already sent
+     * still take their reply from the old address.
+     */
+    void resolve() {
+
+        for (ServerState state : servers) {
+            CasqueServer server = state.server;
+            try {
+                InetAddress address = InetAddress.getByName(server.getHost());
+                if (!address.equals(server.getAddress().getAddress())) {
+                    state.server = server.withAddress(address);
+                    log.info("CASQUE SNR Server " + server + " now resolves to " + address.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                log.warn("Could not resolve CASQUE SNR Server " + server + ", keeping " + server.getAddress(), e);
+            }
+        }
+    }
+
+    int size() {
+
+        return servers.size();
+    }
+
+    /**
+     * Order the servers to try for a new request.
+     * The selected server with a closed circuit first, then the other closed ones, then the rest.
+     *
+     * @return the servers to try in turn.
+     */
+    synchronized List<CasqueServer> order() {
+
+        List<ServerState> closed = new ArrayList<>();
+        List<CasqueServer> ordered = new ArrayList<>(servers.size());
+        List<CasqueServer> notClosed = new ArrayList<>();
+        for (ServerState state : servers) {
+            if (state.breaker.getState() == CircuitBreaker.State.CLOSED) {
+                closed.add(state);
+            } else {
+                notClosed.add(state.server);
+            }
+        }
+        if (!closed.isEmpty()) {
+            ServerState selected = leastLatency ? leastLatency(closed) : nextWeighted(closed);
+            ordered.add(selected.server);
+            for (ServerState state : closed) {
+                if (state != selected) {
+                    ordered.add(state.server);
+                }
+            }
+        }
+        ordered.addAll(notClosed);
+        return ordered;
+    }
+
+    private ServerState find(CasqueServer server) {
+
+        for (ServerState state : servers) {
+            if (state.server.getId().equals(server.getId())) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("CASQUE SNR Server " + server + " is not in the pool");
+    }
+
+    /**
+     * Smooth weighted round robin, every server gains its weight and the
+     * one with the most credit is picked and pays back the total.
+     */
+    private ServerState nextWeighted(List<ServerState> candidates) {
+
+        ServerState selected = null;
+        int total = 0;
+        for (ServerState state : candidates) {
+            state.credit += state.server.getWeight();
+            total += state.server.getWeight();
+            if (selected == null || state.credit > selected.credit) {
+                selected = state;
+            }
+        }
+        selected.credit -= total;
+        return selected;
+    }
+
+    private ServerState leastLatency(List<ServerState> candidates) {
+
+        ServerState selected = candidates.get(0);
+        long selectedRtt = latency(selected);
+        for (ServerState state : candidates) {
+            long rtt = latency(state);
+            if (rtt < selectedRtt) {
+                selected = state;
+                selectedRtt = rtt;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * The smoothed round trip time of a server, or its initial timeout until a reply has been
+     * sampled, so a server that has only timed out does not look like the fastest.
+     */
+    private static long latency(ServerState state) {
+
+        long rtt = state.rtt.getSmoothedRtt();
+        return rtt == 0 ? state.rtt.getInitialTimeout() : rtt;
+    }
+
+    /**
+     * Circuit breaker, round trip time and round robin credit of one server.
+     */
+    private static class ServerState {
+
+        private volatile CasqueServer server;
+        private final CircuitBreaker breaker;
+        private final RttEstimator rtt;
+        private int credit = 0;
+
+        ServerState(CasqueServer server, CircuitBreaker breaker, RttEstimator rtt) {
+
+            this.server = server;
+            this.breaker = breaker;
+            this.rtt = rtt;
+        }
+    }
+}
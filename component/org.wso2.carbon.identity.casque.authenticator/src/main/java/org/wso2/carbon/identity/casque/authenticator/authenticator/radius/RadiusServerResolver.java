@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the host names of a server pool again at a fixed interval, on its own daemon thread,
+ * so a DNS change of a CASQUE SNR Server is followed without a restart and request threads
+ * never wait on the resolver. The JVM's own address cache, networkaddress.cache.ttl,
+ * also applies to each lookup.
+ */
+class RadiusServerResolver {
+
+    private static final Log log = LogFactory.getLog(RadiusServerResolver.class);
+
+    private final ScheduledExecutorService executor;
+    private final long interval;
+
+    /**
+     * Constructor
+     * Start resolving the pool's servers.
+     *
+     * @param pool     the servers to resolve.
+     * @param interval milliseconds between lookups.
+     */
+    RadiusServerResolver(final RadiusServerPool pool, long interval) {
+
+        this.interval = interval;
+        executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "CASQUE-DNS-Resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                pool.resolve();
+            } catch (RuntimeException e) {
+                // Keep the task scheduled, an exception would cancel it
+                log.error("Error resolving the CASQUE SNR Servers", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    long getInterval() {
+
+        return interval;
+    }
+
+    /**
+     * Stop resolving.
+     */
+    void close() {
+
+        executor.shutdownNow();
+    }
+}
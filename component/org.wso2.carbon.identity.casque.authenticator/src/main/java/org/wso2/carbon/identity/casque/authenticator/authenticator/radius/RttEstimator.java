@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip time estimator for one CASQUE SNR server.
+ * Keeps a smoothed round trip time and its variance the way TCP does (RFC 6298) and
+ * derives the retransmission timeout from them, so retries fire soon after a normally
+ * fast server misses a reply and back off when the server is slow or overloaded.
+ * Only replies to requests that were sent once are sampled, as a reply to a resent
+ * request can not be matched to the copy it answers (Karn's algorithm).
+ */
+class RttEstimator {
+
+    private final long initialTimeout;
+    private final long minTimeout;
+    private final long maxTimeout;
+    private long smoothedRtt = 0;
+    private long rttVariance = 0;
+    private long timeout;
+
+    /**
+     * Constructor
+     *
+     * @param initialTimeout the timeout in milliseconds until the first sample.
+     * @param minTimeout     the lower bound of the timeout in milliseconds.
+     * @param maxTimeout     the upper bound of the timeout in milliseconds, also caps the backoff.
+     */
+    RttEstimator(long initialTimeout, long minTimeout, long maxTimeout) {
+
+        this.minTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(1, minTimeout));
+        this.maxTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(minTimeout, maxTimeout));
+        this.initialTimeout = clamp(TimeUnit.MILLISECONDS.toNanos(initialTimeout));
+        this.timeout = this.initialTimeout;
+    }
+
+    /**
+     * Add a round trip time measurement.
+     *
+     * @param rtt the time between sending a request once and receiving its reply, in nanoseconds.
+     */
+    synchronized void sample(long rtt) {
+
+        if (smoothedRtt == 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+        } else {
+            rttVariance += (Math.abs(smoothedRtt - rtt) - rttVariance) / 4;
+            smoothedRtt += (rtt - smoothedRtt) / 8;
+        }
+        timeout = clamp(smoothedRtt + 4 * rttVariance);
+    }
+
+    /**
+     * Get the timeout for the first copy of a request.
+     *
+     * @return the retransmission timeout in nanoseconds.
+     */
+    synchronized long getTimeout() {
+
+        return timeout;
+    }
+
+    /**
+     * Get the timeout for a resent copy, double the previous one up to the upper bound.
+     *
+     * @param previous the timeout of the previous copy in nanoseconds.
+     * @return the retransmission timeout in nanoseconds.
+     */
+    long backoff(long previous) {
+
+        return Math.min(previous * 2, maxTimeout);
+    }
+
+    /**
+     * Get the timeout used until the first sample.
+     *
+     * @return the initial retransmission timeout in nanoseconds.
+     */
+    long getInitialTimeout() {
+
+        return initialTimeout;
+    }
+
+    /**
+     * Get the smoothed round trip time.
+     *
+     * @return the smoothed round trip time in nanoseconds, 0 before the first sample.
+     */
+    synchronized long getSmoothedRtt() {
+
+        return smoothedRtt;
+    }
+
+    private long clamp(long value) {
+
+        return Math.min(Math.max(value, minTimeout), maxTimeout);
+    }
+}
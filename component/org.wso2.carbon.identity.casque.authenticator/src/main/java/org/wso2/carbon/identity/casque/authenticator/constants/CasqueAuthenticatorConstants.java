@@ -28,8 +28,11 @@ public class CasqueAuthenticatorConstants {
     public static final String BTN_ACTION = "btnAction";
     public static final String RESPONSE = "response";
     public static final String RADIUS_STATE = "state";
+    public static final String RADIUS_SERVER = "casqueServer";
+    public static final String LOGIN_TIMER = "casqueLoginTimer";
+    public static final String PENDING_CHALLENGE = "casquePendingChallenge";
     public static final String CONTENT_TYPE = "text/html;charset=UTF-8";
-    public static final String QR_PLAYER = "/qr_player.tmp";
+    public static final String QR_PLAYER = "qr_player.tmp";
     public static final String CASQUE_CHALLENGE = "<%CASQUE_CHALLENGE%>";
     public static final String SESSION_DATA_KEY = "<%sessionDataKey%>";
     public static final String CACHE_CONTROL = "Cache-Control";
@@ -39,7 +42,31 @@ public class CasqueAuthenticatorConstants {
     public static final String CONF_CASQUE_SECRET = "casque_secret";
     public static final String CONF_CASQUE_ADDRESS = "casque_address";
     public static final String CONF_CASQUE_PORT = "casque_port";
+    public static final String CONF_CASQUE_SERVER = "casque_server";
+    public static final String CONF_SERVER_SELECTION = "server_selection";
+    public static final String CONF_SERVER_FAILURE_THRESHOLD = "server_failure_threshold";
+    public static final String CONF_SERVER_RETRY_INTERVAL = "server_retry_interval";
+    public static final String CONF_SERVER_PROBE_REQUESTS = "server_probe_requests";
+    public static final String CONF_RETRY_TRIES = "retry_tries";
+    public static final String CONF_RETRY_INITIAL_TIMEOUT = "retry_initial_timeout";
+    public static final String CONF_RETRY_MIN_TIMEOUT = "retry_min_timeout";
+    public static final String CONF_RETRY_MAX_TIMEOUT = "retry_max_timeout";
     public static final String CONF_LOCAL_PORT = "port";
+    public static final String WEIGHTED_ROUND_ROBIN = "weighted_round_robin";
+    public static final String LEAST_LATENCY = "least_latency";
+    public static final String CONF_LOCAL_PORT_RANGE = "port_range";
+    public static final String CONF_SOCKET_POOL_SIZE = "socket_pool_size";
+    public static final String CONF_SOCKET_POOL_MAX = "socket_pool_max";
+    public static final String CONF_RECEIVE_THREADS = "receive_threads";
+    public static final String CONF_TEMPLATE_DIR = "template_dir";
+    public static final String TEMPLATE_DIR = "casque";
+    public static final String CONF_TOKEN_CACHE_TTL = "token_cache_ttl";
+    public static final String CONF_TOKEN_CACHE_SIZE = "token_cache_size";
+    public static final String CONF_CHALLENGE_INDEX_TTL = "challenge_index_ttl";
+    public static final String CONF_CHALLENGE_INDEX_SIZE = "challenge_index_size";
+    public static final String CONF_DNS_TTL = "dns_ttl";
+    public static final String CONF_SLOW_LOGIN_THRESHOLD = "slow_login_threshold";
+    public static final String CONF_WARMUP_USER = "warmup_user";
     public static final String MD5 = "MD5";
     public static final String HASH = "#";
     public static final String LOGIN = "Login";
@@ -36,15 +36,19 @@ import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.Radius
 import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.RadiusResponse;
 import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
 import org.wso2.carbon.identity.application.authentication.framework.AuthenticatorFlowStatus;
+import org.wso2.carbon.identity.application.authentication.framework.exception.InvalidCredentialsException;
 import org.wso2.carbon.identity.application.authentication.framework.model.AuthenticatedUser;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
 import org.wso2.carbon.identity.casque.authenticator.authenticator.internal.CasqueAuthenticatorServiceDataHolder;
 
+import java.util.Arrays;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
@@ -100,6 +104,7 @@ public class CasqueAuthenticatorTest {
     public void setUp() {
 
         casqueAuthenticator = new CasqueAuthenticator();
+        casqueAuthenticator.getTokenIdCache().clear();
         initMocks(this);
     }
 
@@ -147,6 +152,24 @@ public class CasqueAuthenticatorTest {
                 , ""), "FFF 000001");
     }
 
+    @Test(description = "Test case for getCasqueTokenId() using the cached Token ID.")
+    public void testGetCasqueTokenIdCached() throws Exception {
+
+        mockStatic(CasqueAuthenticatorServiceDataHolder.class);
+        mockStatic(IdentityTenantUtil.class);
+
+        when(CasqueAuthenticatorServiceDataHolder.getInstance()).thenReturn(casqueAuthenticatorServiceDataHolder);
+        when(casqueAuthenticatorServiceDataHolder.getRealmService()).thenReturn(realmService);
+        when(realmService.getTenantUserRealm(IdentityTenantUtil.getTenantIdOfUser(anyString())))
+                .thenReturn(tenantUserRealm);
+        when(tenantUserRealm.getUserStoreManager()).thenReturn(userStoreManager);
+        when(userStoreManager.getUserClaimValues(anyString(), any(String[].class), anyString())).thenReturn(mockMap);
+        when(mockMap.get(anyString())).thenReturn("FFF 000001");
+        Assert.assertEquals(Whitebox.invokeMethod(casqueAuthenticator, "getCasqueTokenId", "user"), "FFF 000001");
+        Assert.assertEquals(Whitebox.invokeMethod(casqueAuthenticator, "getCasqueTokenId", "user"), "FFF 000001");
+        verify(userStoreManager, times(1)).getUserClaimValues(anyString(), any(String[].class), anyString());
+    }
+
     @Test(expectedExceptions = {CasqueException.class})
     public void testGetCasqueTokenIdforTokenNull() throws Exception {
 
@@ -218,8 +241,10 @@ public class CasqueAuthenticatorTest {
         when(context.getProperty(anyString())).thenReturn(radiusState);
         when(httpServletRequest.getParameter(anyString())).thenReturn("LOGIN");
         when(context.getProperty(CasqueAuthenticatorConstants.USER_NAME)).thenReturn("casque1");
+        when(context.getProperty(CasqueAuthenticatorConstants.RADIUS_SERVER)).thenReturn("127.0.0.1:1812");
         when(httpServletRequest.getParameter(CasqueAuthenticatorConstants.RESPONSE)).thenReturn("ACCESS_ACCEPT");
-        when(Radius.sendRequest(anyString(), anyString(), (byte[]) anyObject())).thenReturn(radiusResponse);
+        when(Radius.sendRequest(anyString(), anyString(), (byte[]) anyObject(), anyString()))
+                .thenReturn(radiusResponse);
         when(radiusResponse.getType()).thenReturn(radiusResponseType);
         when(AuthenticatedUser.createLocalAuthenticatedUserFromSubjectIdentifier(anyString()))
                 .thenReturn(authenticatedUser);
@@ -256,6 +281,30 @@ public class CasqueAuthenticatorTest {
         Assert.assertEquals(User.getUserFromUserName(anyString()), user);
     }
 
+    @Test(description = "Test case for process() method for a response too long to send.",
+            expectedExceptions = {InvalidCredentialsException.class})
+    public void testProcessResponseTooLong() throws Exception {
+
+        byte[] radiusState = new byte[1];
+        radiusState[0] = 10;
+        char[] challengeResponse = new char[200];
+        Arrays.fill(challengeResponse, 'x');
+        mockStatic(Radius.class);
+        mockStatic(User.class);
+
+        when(context.isLogoutRequest()).thenReturn(false);
+        when(context.getProperty(anyString())).thenReturn(radiusState);
+        when(context.getProperty(CasqueAuthenticatorConstants.USER_NAME)).thenReturn("casque1");
+        when(httpServletRequest.getParameter(CasqueAuthenticatorConstants.BTN_ACTION))
+                .thenReturn(CasqueAuthenticatorConstants.LOGIN);
+        when(httpServletRequest.getParameter(CasqueAuthenticatorConstants.RESPONSE))
+                .thenReturn(new String(challengeResponse));
+        when(Radius.sendRequest(anyString(), anyString(), (byte[]) anyObject(), anyString()))
+                .thenThrow(new IllegalStateException("The response should not be sent"));
+        when(User.getUserFromUserName(anyString())).thenReturn(user);
+        casqueAuthenticator.process(httpServletRequest, httpServletResponse, context);
+    }
+
     @Test(description = "Test case for process() method for login fail")
     public void testProcessRadiusStateLoginFail() throws Exception {
 
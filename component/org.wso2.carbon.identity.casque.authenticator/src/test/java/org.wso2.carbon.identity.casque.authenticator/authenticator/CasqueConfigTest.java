@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.casque.authenticator.exception.CasqueException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CasqueConfigTest {
+
+    private static final String SERVER = "casque_secret casquesecret12345\ncasque_address 127.0.0.1\n"
+            + "casque_port 1812\n";
+    private static final long RELOAD_WAIT = 30000;
+
+    @Test(description = "Test case for parsing and validating a configuration.")
+    public void testParse() throws Exception {
+
+        CasqueConfig config = CasqueConfig.parse("# comment\ncasque_secret casquesecret12345\n"
+                + "casque_address 127.0.0.1\ncasque_port 1812\ncasque_server 127.0.0.1 1813 2\n"
+                + "port_range 8889-8890\nretry_tries 2\nvirtual_threads true\n");
+        config.validate();
+        Assert.assertEquals(config.getRadiusSecret(), "casquesecret12345".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(config.getServers().size(), 2);
+        Assert.assertEquals(config.getServers().get(1).getWeight(), 2);
+        Assert.assertEquals(config.getLocalPorts(), new int[]{8889, 8890});
+        Assert.assertEquals(config.getRetryTries(), 2);
+        Assert.assertNull(config.getWarmupUser());
+        Assert.assertEquals(config.getChallengeIndexSize(), 0);
+        Assert.assertEquals(CasqueConfig.parse("challenge_index_size 50000\n").getChallengeIndexSize(), 50000);
+    }
+
+    @Test(description = "Test case for a line that can not be parsed.",
+            expectedExceptions = CasqueException.class)
+    public void testParseInvalidLine() throws Exception {
+
+        CasqueConfig.parse("casque_port 1812\nretry_tries many\n");
+    }
+
+    @Test(description = "Test case for a server weight that is not positive.")
+    public void testParseInvalidWeight() throws Exception {
+
+        for (String weight : new String[]{"0", "-5"}) {
+            try {
+                CasqueConfig.parse("casque_server 127.0.0.1 1812 " + weight + "\n");
+                Assert.fail("Weight " + weight + " was accepted");
+            } catch (CasqueException e) {
+                Assert.assertTrue(e.getMessage().contains("line 1"), e.getMessage());
+            }
+        }
+        Assert.assertEquals(CasqueConfig.parse("casque_server 127.0.0.1 1812 3\n").getServers().get(0).getWeight(),
+                3);
+    }
+
+    @Test(description = "Test case for a configuration that can not reach a server.")
+    public void testValidate() throws Exception {
+
+        CasqueConfig config = CasqueConfig.parse("casque_server 127.0.0.1 1812\nserver_selection fastest\n"
+                + "retry_min_timeout 500\nretry_max_timeout 100\n");
+        try {
+            config.validate();
+            Assert.fail("An invalid configuration was accepted");
+        } catch (CasqueException e) {
+            Assert.assertTrue(e.getMessage().contains("casque_secret"));
+            Assert.assertTrue(e.getMessage().contains("server_selection"));
+            Assert.assertTrue(e.getMessage().contains("retry_max_timeout"));
+            Assert.assertFalse(e.getMessage().contains("casque_server"));
+        }
+    }
+
+    @Test(description = "Test case for casque.conf being reloaded when the file changes.")
+    public void testReload() throws Exception {
+
+        Path confDir = Files.createTempDirectory("casque-config-test");
+        Path conf = confDir.resolve("casque.conf");
+        System.setProperty("carbon.config.dir.path", confDir.toString());
+        try {
+            write(conf, SERVER + "retry_tries 2\n");
+            CasqueConfig.stopWatching();
+            CasqueConfig first = CasqueConfig.get();
+            Assert.assertEquals(first.getRetryTries(), 2);
+
+            // The watcher swaps in a new snapshot, the old one is left as it was
+            write(conf, SERVER + "retry_tries 4\n");
+            CasqueConfig second = waitForChange(first);
+            Assert.assertEquals(second.getRetryTries(), 4);
+            Assert.assertEquals(first.getRetryTries(), 2);
+            Assert.assertFalse(CasqueConfig.reload());
+
+            // An edit that does not parse, or does not validate, keeps the current snapshot
+            write(conf, SERVER + "retry_tries many\n");
+            Assert.assertFalse(CasqueConfig.reload());
+            Assert.assertSame(CasqueConfig.current(), second);
+            write(conf, "casque_port 1812\n"); // No casque_secret
+            Assert.assertFalse(CasqueConfig.reload());
+            Thread.sleep(500);
+            Assert.assertSame(CasqueConfig.current(), second);
+
+            // Fixing the file is picked up again
+            write(conf, SERVER + "retry_tries 5\n");
+            Assert.assertEquals(waitForChange(second).getRetryTries(), 5);
+        } finally {
+            CasqueConfig.stopWatching();
+            System.clearProperty("carbon.config.dir.path");
+            File[] files = confDir.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.delete(file.toPath());
+                }
+            }
+            Files.delete(confDir);
+        }
+    }
+
+    private static void write(Path conf, String text) throws Exception {
+
+        Files.write(conf, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Wait for the watcher to publish a snapshot other than the one given.
+     */
+    private static CasqueConfig waitForChange(CasqueConfig previous) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + RELOAD_WAIT;
+        while (CasqueConfig.current() == previous) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "casque.conf was not reloaded");
+            Thread.sleep(20);
+        }
+        return CasqueConfig.current();
+    }
+}
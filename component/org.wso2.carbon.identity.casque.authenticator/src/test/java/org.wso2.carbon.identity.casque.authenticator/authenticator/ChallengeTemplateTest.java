@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ChallengeTemplateTest {
+
+    private static final String TEMPLATE = "<p>\u00a9 <%CASQUE_CHALLENGE%></p><input value=\"<%sessionDataKey%>\"/>"
+            + "<script>play('<%CASQUE_CHALLENGE%>');</script>";
+
+    @Test(description = "Test case for rendering the values into their slots.")
+    public void testRender() throws Exception {
+
+        ChallengeTemplate template = ChallengeTemplate.parse(TEMPLATE);
+        byte[] challenge = "ch\u00e9-_".getBytes(StandardCharsets.UTF_8);
+        byte[] sessionDataKey = "key".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(out, challenge, sessionDataKey);
+
+        String expected = TEMPLATE.replace("<%CASQUE_CHALLENGE%>", "ch\u00e9-_").replace("<%sessionDataKey%>", "key");
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), expected);
+        Assert.assertEquals(template.getLength(challenge, sessionDataKey), out.size());
+        Assert.assertEquals(out.size(), expected.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test(description = "Test case for a template without placeholders.")
+    public void testNoPlaceholders() throws Exception {
+
+        ChallengeTemplate template = ChallengeTemplate.parse("<html/>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(out, new byte[0], new byte[0]);
+        Assert.assertEquals(out.toString("UTF-8"), "<html/>");
+        Assert.assertEquals(template.getLength(new byte[0], new byte[0]), 7);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class LoginTimerTest {
+
+    @AfterMethod
+    public void tearDown() {
+
+        CasqueConfig.set(null);
+        LoginMetrics.get().reset();
+    }
+
+    @Test(description = "Test case for timing the phases of a login.")
+    public void testPhases() throws Exception {
+
+        LoginTimer timer = new LoginTimer();
+        Thread.sleep(2);
+        timer.end(LoginTimer.TOKEN_LOOKUP);
+        timer.end(LoginTimer.FIRST_EXCHANGE);
+        timer.challengeSent();
+        Thread.sleep(5);
+        timer.responseReceived();
+        timer.end(LoginTimer.VERIFICATION);
+        timer.finish("alice");
+
+        Assert.assertTrue(timer.getPhaseNanos(LoginTimer.TOKEN_LOOKUP) >= 2000000L);
+        Assert.assertTrue(timer.getPhaseNanos(LoginTimer.USER_RESPONSE) >= 5000000L);
+        Assert.assertEquals(LoginMetrics.get().getLogins(), 1);
+        Assert.assertEquals(LoginMetrics.get().getPhases().get("token_lookup").getCount(), 1);
+        Assert.assertEquals(LoginMetrics.get().getPhases().get("challenge_render").getCount(), 0);
+        Assert.assertEquals(LoginMetrics.get().getSlowLogins(), 0);
+    }
+
+    @Test(description = "Test case for a login over the slow login threshold.")
+    public void testSlowLogin() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("slow_login_threshold 1\n"));
+        LoginTimer timer = new LoginTimer();
+        timer.challengeSent();
+        Thread.sleep(5);
+        timer.responseReceived();
+        timer.end(LoginTimer.VERIFICATION);
+        timer.finish("alice");
+        // The user's response does not count
+        Assert.assertEquals(LoginMetrics.get().getSlowLogins(), 0);
+
+        timer = new LoginTimer();
+        Thread.sleep(5);
+        timer.end(LoginTimer.FIRST_EXCHANGE);
+        timer.finish("alice");
+        Assert.assertEquals(LoginMetrics.get().getSlowLogins(), 1);
+    }
+
+    @Test(description = "Test case for a timer kept in a serialized authentication context.")
+    public void testSerialization() throws Exception {
+
+        LoginTimer timer = new LoginTimer();
+        timer.end(LoginTimer.TOKEN_LOOKUP);
+        timer.challengeSent();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(timer);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            LoginTimer restored = (LoginTimer) in.readObject();
+            restored.responseReceived();
+            restored.end(LoginTimer.VERIFICATION);
+            Assert.assertEquals(restored.getPhaseNanos(LoginTimer.TOKEN_LOOKUP),
+                    timer.getPhaseNanos(LoginTimer.TOKEN_LOOKUP));
+            Assert.assertTrue(restored.getPhaseNanos(LoginTimer.VERIFICATION) < 1000000000L);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class PendingChallengeTest {
+
+    private static final byte[] STATE = "0123456789abcdef".getBytes();
+
+    @AfterMethod
+    public void tearDown() {
+
+        CasqueConfig.set(null);
+        LoginMetrics.get().reset();
+    }
+
+    @Test(description = "Test case for a challenge kept in a serialized authentication context.")
+    public void testSerialization() throws Exception {
+
+        LoginTimer timer = new LoginTimer();
+        Thread.sleep(2);
+        timer.end(LoginTimer.TOKEN_LOOKUP);
+        timer.challengeSent();
+        PendingChallenge challenge = new PendingChallenge(STATE, "10.0.0.1:1812", "alice", timer);
+
+        PendingChallenge copy = (PendingChallenge) deserialize(serialize(challenge));
+        Assert.assertEquals(copy.getState(), STATE);
+        Assert.assertEquals(copy.getServerId(), "10.0.0.1:1812");
+        Assert.assertEquals(copy.getUserName(), "alice");
+        Assert.assertEquals(copy.getIssuedAt(), challenge.getIssuedAt());
+        Assert.assertEquals(copy.getTimer().getPhaseNanos(LoginTimer.TOKEN_LOOKUP),
+                timer.getPhaseNanos(LoginTimer.TOKEN_LOOKUP));
+        Thread.sleep(5);
+        copy.getTimer().responseReceived();
+        Assert.assertTrue(copy.getTimer().getPhaseNanos(LoginTimer.USER_RESPONSE) >= 5000000L);
+    }
+
+    @Test(description = "Test case for a challenge without a server or timer.")
+    public void testNullFields() throws Exception {
+
+        PendingChallenge copy = PendingChallenge.fromBytes(new PendingChallenge(STATE, null, "bob", null).toBytes());
+        Assert.assertEquals(copy.getState(), STATE);
+        Assert.assertNull(copy.getServerId());
+        Assert.assertEquals(copy.getUserName(), "bob");
+        Assert.assertNull(copy.getTimer());
+    }
+
+    @Test(description = "Test case for the size of a challenge against the separate properties it replaces.")
+    public void testCompact() throws Exception {
+
+        LoginTimer timer = new LoginTimer();
+        timer.end(LoginTimer.TOKEN_LOOKUP);
+        timer.end(LoginTimer.FIRST_EXCHANGE);
+        timer.challengeSent();
+        PendingChallenge challenge = new PendingChallenge(STATE, "10.0.0.1:1812", "alice", timer);
+
+        Assert.assertTrue(challenge.toBytes().length < 64, "compact form " + challenge.toBytes().length);
+        int separate = serialize(new Object[]{STATE, "10.0.0.1:1812", "alice", timer}).length;
+        int record = serialize(challenge).length;
+        Assert.assertTrue(record < separate, record + " bytes against " + separate);
+    }
+
+    @Test(description = "Test case for challenges kept on this node by sessionDataKey.")
+    public void testIndex() throws Exception {
+
+        PendingChallengeIndex index = new PendingChallengeIndex();
+        Assert.assertFalse(index.isEnabled());
+        index.put("key1", new PendingChallenge(STATE, null, "alice", null));
+        Assert.assertEquals(index.size(), 0);
+
+        CasqueConfig.set(CasqueConfig.parse("challenge_index_size 2\n"));
+        Assert.assertTrue(index.isEnabled());
+        index.put("key1", new PendingChallenge(STATE, null, "alice", null));
+        index.put("key2", new PendingChallenge(STATE, null, "bob", null));
+        index.put("key3", new PendingChallenge(STATE, null, "carol", null));
+        Assert.assertEquals(index.size(), 2);
+        Assert.assertNull(index.take("key1"));
+        Assert.assertEquals(index.take("key2").getUserName(), "bob");
+        // A challenge is only answered once
+        Assert.assertNull(index.take("key2"));
+        Assert.assertEquals(index.size(), 1);
+    }
+
+    @Test(description = "Test case for an expired challenge kept on this node.")
+    public void testIndexExpiry() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("challenge_index_size 10\nchallenge_index_ttl 1\n"));
+        PendingChallengeIndex index = new PendingChallengeIndex();
+        index.put("key1", new PendingChallenge(STATE, null, "alice", null));
+        Thread.sleep(5);
+        index.put("key2", new PendingChallenge(STATE, null, "bob", null));
+        Assert.assertEquals(index.size(), 1);
+        Thread.sleep(5);
+        Assert.assertNull(index.take("key2"));
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
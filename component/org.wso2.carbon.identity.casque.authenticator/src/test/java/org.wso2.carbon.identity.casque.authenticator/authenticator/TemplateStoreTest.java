@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TemplateStoreTest {
+
+    private static final String NAME = "casque_test.html";
+    private static final String CONF = "casque_secret casquesecret12345\ncasque_address 127.0.0.1\ncasque_port 1812\n";
+    private static final long RELOAD_WAIT = 30000;
+
+    private Path confDir;
+    private TemplateStore store;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        confDir = Files.createTempDirectory("casque-template-test");
+        System.setProperty("carbon.config.dir.path", confDir.toString());
+        store = new TemplateStore();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+
+        store.close();
+        CasqueConfig.stopWatching();
+        System.clearProperty("carbon.config.dir.path");
+        delete(confDir.toFile());
+    }
+
+    @Test(description = "Test case for a changed template file replacing the cached template.")
+    public void testTemplateChange() throws Exception {
+
+        Path dir = Files.createDirectory(confDir.resolve(CasqueAuthenticatorConstants.TEMPLATE_DIR));
+        write(dir.resolve(NAME), "version 1");
+        write(confDir.resolve(CasqueAuthenticatorConstants.CONF_FILE), CONF);
+        CasqueConfig.stopWatching();
+        CasqueConfig.get();
+
+        ChallengeTemplate first = store.get(NAME);
+        Assert.assertEquals(render(first), "version 1");
+        Assert.assertSame(store.get(NAME), first);
+
+        write(dir.resolve(NAME), "version 2");
+        waitForTemplate(NAME, "version 2");
+    }
+
+    @Test(description = "Test case for a store closed and used again, as on a second activation.")
+    public void testReopen() throws Exception {
+
+        Path dir = Files.createDirectory(confDir.resolve(CasqueAuthenticatorConstants.TEMPLATE_DIR));
+        write(dir.resolve(NAME), "version 1");
+        write(confDir.resolve(CasqueAuthenticatorConstants.CONF_FILE), CONF);
+        CasqueConfig.stopWatching();
+        CasqueConfig.get();
+        Assert.assertEquals(render(store.get(NAME)), "version 1");
+
+        store.close();
+        write(dir.resolve(NAME), "version 2");
+        Assert.assertEquals(render(store.get(NAME)), "version 2");
+        write(dir.resolve(NAME), "version 3");
+        waitForTemplate(NAME, "version 3");
+    }
+
+    @Test(description = "Test case for a casque.conf edit moving the template directory.")
+    public void testTemplateDirChange() throws Exception {
+
+        Path dir = Files.createDirectory(confDir.resolve(CasqueAuthenticatorConstants.TEMPLATE_DIR));
+        Path other = Files.createDirectory(confDir.resolve("other"));
+        write(dir.resolve(NAME), "version 1");
+        write(other.resolve(NAME), "other version");
+        write(confDir.resolve(CasqueAuthenticatorConstants.CONF_FILE), CONF);
+        CasqueConfig.stopWatching();
+        CasqueConfig first = CasqueConfig.get();
+        Assert.assertEquals(render(store.get(NAME)), "version 1");
+
+        // The reloaded snapshot points at the other directory, the cached template is dropped
+        write(confDir.resolve(CasqueAuthenticatorConstants.CONF_FILE),
+                CONF + CasqueAuthenticatorConstants.CONF_TEMPLATE_DIR + " other\n");
+        waitForTemplate(NAME, "other version");
+        Assert.assertNotSame(CasqueConfig.current(), first);
+
+        // And the other directory is watched from then on
+        write(other.resolve(NAME), "other version 2");
+        waitForTemplate(NAME, "other version 2");
+    }
+
+    @Test(description = "Test case for a template directory created after the first page.")
+    public void testTemplateDirCreated() throws Exception {
+
+        write(confDir.resolve(CasqueAuthenticatorConstants.CONF_FILE), CONF);
+        CasqueConfig.stopWatching();
+        CasqueConfig.get();
+        String bundled = render(store.get(CasqueAuthenticatorConstants.QR_PLAYER));
+        Assert.assertFalse(bundled.equals("version 1"));
+
+        // The bundled template is not kept once the directory holds its own
+        Path dir = Files.createDirectory(confDir.resolve(CasqueAuthenticatorConstants.TEMPLATE_DIR));
+        write(dir.resolve(CasqueAuthenticatorConstants.QR_PLAYER), "version 1");
+        waitForTemplate(CasqueAuthenticatorConstants.QR_PLAYER, "version 1");
+
+        write(dir.resolve(CasqueAuthenticatorConstants.QR_PLAYER), "version 2");
+        waitForTemplate(CasqueAuthenticatorConstants.QR_PLAYER, "version 2");
+    }
+
+    @Test(description = "Test case for a template directory deleted and created again.")
+    public void testTemplateDirRecreated() throws Exception {
+
+        Path dir = Files.createDirectory(confDir.resolve(CasqueAuthenticatorConstants.TEMPLATE_DIR));
+        write(dir.resolve(CasqueAuthenticatorConstants.QR_PLAYER), "version 1");
+        write(confDir.resolve(CasqueAuthenticatorConstants.CONF_FILE), CONF);
+        CasqueConfig.stopWatching();
+        CasqueConfig.get();
+        Assert.assertEquals(render(store.get(CasqueAuthenticatorConstants.QR_PLAYER)), "version 1");
+
+        delete(dir.toFile());
+        long deadline = System.currentTimeMillis() + RELOAD_WAIT;
+        while (render(store.get(CasqueAuthenticatorConstants.QR_PLAYER)).equals("version 1")) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "The bundled template was not used");
+            Thread.sleep(20);
+        }
+
+        // The recreated directory is watched again
+        Files.createDirectory(dir);
+        write(dir.resolve(CasqueAuthenticatorConstants.QR_PLAYER), "version 2");
+        waitForTemplate(CasqueAuthenticatorConstants.QR_PLAYER, "version 2");
+        write(dir.resolve(CasqueAuthenticatorConstants.QR_PLAYER), "version 3");
+        waitForTemplate(CasqueAuthenticatorConstants.QR_PLAYER, "version 3");
+    }
+
+    private void waitForTemplate(String name, String expected) throws Exception {
+
+        long deadline = System.currentTimeMillis() + RELOAD_WAIT;
+        while (!render(store.get(name)).equals(expected)) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "The template was not reloaded");
+            Thread.sleep(20);
+        }
+    }
+
+    private static String render(ChallengeTemplate template) throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(out, new byte[0], new byte[0]);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void write(Path file, String text) throws Exception {
+
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(File file) throws Exception {
+
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+}
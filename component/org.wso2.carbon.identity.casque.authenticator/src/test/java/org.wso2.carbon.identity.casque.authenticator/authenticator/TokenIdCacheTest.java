@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TokenIdCacheTest {
+
+    @AfterMethod
+    public void tearDown() {
+
+        CasqueConfig.set(null);
+    }
+
+    @Test(description = "Test case for caching a Token ID per tenant.")
+    public void testGetAndPut() {
+
+        TokenIdCache cache = new TokenIdCache();
+        cache.put(1, "alice", "FFF 000001");
+        Assert.assertEquals(cache.get(1, "alice"), "FFF 000001");
+        Assert.assertNull(cache.get(2, "alice"));
+        Assert.assertNull(cache.get(1, "bob"));
+    }
+
+    @Test(description = "Test case for an expired Token ID.")
+    public void testExpiry() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("token_cache_ttl 1\n"));
+        TokenIdCache cache = new TokenIdCache();
+        cache.put(1, "alice", "FFF 000001");
+        Thread.sleep(5);
+        Assert.assertNull(cache.get(1, "alice"));
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test(description = "Test case for evicting the least recently used Token ID.")
+    public void testEviction() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("token_cache_size 2\n"));
+        TokenIdCache cache = new TokenIdCache();
+        cache.put(1, "alice", "FFF 000001");
+        cache.put(1, "bob", "FFF 000002");
+        cache.get(1, "alice");
+        cache.put(1, "carol", "FFF 000003");
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertNull(cache.get(1, "bob"));
+        Assert.assertEquals(cache.get(1, "alice"), "FFF 000001");
+    }
+
+    @Test(description = "Test case for evicting a batch of the least recently read Token IDs.")
+    public void testEvictionBatch() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("token_cache_size 32\n"));
+        TokenIdCache cache = new TokenIdCache();
+        for (int i = 0; i < 32; i++) {
+            cache.put(1, "user" + i, "FFF 000001");
+        }
+        for (int i = 0; i < 32; i += 2) {
+            cache.get(1, "user" + i);
+        }
+        cache.put(1, "new", "FFF 000002");
+        // Down to 30, the three dropped are the eldest of those never read
+        Assert.assertEquals(cache.size(), 30);
+        for (int i = 1; i < 6; i += 2) {
+            Assert.assertNull(cache.get(1, "user" + i));
+        }
+        for (int i = 0; i < 32; i += 2) {
+            Assert.assertNotNull(cache.get(1, "user" + i));
+        }
+        Assert.assertNotNull(cache.get(1, "new"));
+    }
+
+    @Test(description = "Test case for concurrent logins staying within the cache size.")
+    public void testConcurrent() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("token_cache_size 100\n"));
+        final TokenIdCache cache = new TokenIdCache();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        String user = "user" + (i % 150) + "-" + thread % 2;
+                        String tokenId = cache.get(1, user);
+                        if (tokenId == null) {
+                            cache.put(1, user, "FFF 000001");
+                        } else {
+                            Assert.assertEquals(tokenId, "FFF 000001");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // A put that finds eviction running leaves it to that thread, the next put catches up
+        cache.put(1, "last", "FFF 000001");
+        Assert.assertTrue(cache.size() <= 100, "Size " + cache.size());
+        Assert.assertEquals(cache.get(1, "last"), "FFF 000001");
+    }
+
+    @Test(description = "Test case for invalidating a user logged in with domain names.")
+    public void testInvalidate() {
+
+        TokenIdCache cache = new TokenIdCache();
+        cache.put(1, "SECONDARY/alice", "FFF 000001");
+        cache.put(2, "alice", "FFF 000002");
+        cache.put(1, "bob", "FFF 000003");
+        cache.invalidate(1, "alice");
+        Assert.assertNull(cache.get(1, "SECONDARY/alice"));
+        Assert.assertEquals(cache.get(2, "alice"), "FFF 000002");
+        Assert.assertEquals(cache.get(1, "bob"), "FFF 000003");
+        cache.invalidateTenant(2);
+        Assert.assertNull(cache.get(2, "alice"));
+    }
+
+    @Test(description = "Test case for a disabled cache.")
+    public void testDisabled() throws Exception {
+
+        CasqueConfig.set(CasqueConfig.parse("token_cache_ttl 0\n"));
+        TokenIdCache cache = new TokenIdCache();
+        cache.put(1, "alice", "FFF 000001");
+        Assert.assertNull(cache.get(1, "alice"));
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for a CASQUE SNR Server, for tests, benchmarks and load runs of the real UDP path.
+ * Speaks the authenticator's flow over RADIUS on a loopback port:
+ * an Access-Request with no State whose User-Password is a Token ID followed by a user name
+ * gets an Access-Challenge with a new State, and an Access-Request carrying that State gets an
+ * Access-Accept if its User-Password is the expected challenge response, otherwise an
+ * Access-Reject. The User-Password is decoded with the shared secret, so a client with another
+ * secret is rejected, and every reply is signed with it.
+ * Retransmitted requests get the reply to the first copy, as a real server would.
+ * Network impairment can be injected: a latency range, and the probability of dropping a request,
+ * sending a reply twice and holding a reply back so later ones overtake it. The random choices
+ * come from a seeded generator, so a run can be repeated.
+ */
+public class CasqueStubServer implements Closeable, Runnable {
+
+    public static final String DEFAULT_RESPONSE = "RESPONSE";
+    private static final Pattern TOKEN_PASSWORD = Pattern.compile("^[a-fA-F0-9]{3} [0-9]{6}.+$");
+    private static final byte ACCESS_REQUEST = 1;
+    private static final byte USER_PASSWORD = 2;
+    private static final byte REPLY_MESSAGE = 18;
+    private static final byte STATE = 24;
+    private static final int DUPLICATE_CACHE_SIZE = 8192;
+    private static final int STATE_CACHE_SIZE = 65536;
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final DatagramChannel channel;
+    private final byte[] secret;
+    private final MessageDigest md5;
+    private final Random random;
+    private final ScheduledExecutorService sender;
+    // Challenges never answered, as from a benchmark that only sends the first leg, are forgotten
+    private final Set<String> states = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+
+            return size() > STATE_CACHE_SIZE;
+        }
+    });
+    private final Map<String, byte[]> replies = new LinkedHashMap<String, byte[]>(16, 0.75f, false) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+
+            return size() > DUPLICATE_CACHE_SIZE;
+        }
+    };
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong challenges = new AtomicLong();
+
+    private volatile String expectedResponse = DEFAULT_RESPONSE;
+    private volatile long minLatency = 0;
+    private volatile long maxLatency = 0;
+    private volatile double lossRate = 0;
+    private volatile double duplicateRate = 0;
+    private volatile double reorderRate = 0;
+
+    /**
+     * Constructor
+     * Bind an ephemeral loopback port and start answering.
+     *
+     * @param secret the shared secret.
+     * @param seed   the seed of the impairment choices.
+     * @throws IOException if the port can not be opened.
+     */
+    public CasqueStubServer(String secret, long seed) throws IOException {
+
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.random = new Random(seed);
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        channel = DatagramChannel.open();
+        // Room for a burst of requests from a load test while the stub thread is busy
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sender = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "CASQUE-Stub-Sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread thread = new Thread(this, "CASQUE-Stub-Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() throws IOException {
+
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Set the challenge response that is accepted.
+     *
+     * @param response the User-Password to accept with a State.
+     */
+    public void setExpectedResponse(String response) {
+
+        this.expectedResponse = response;
+    }
+
+    /**
+     * Delay each reply by a random time in the range.
+     *
+     * @param min the shortest delay in milliseconds.
+     * @param max the longest delay in milliseconds.
+     */
+    public void setLatency(long min, long max) {
+
+        this.minLatency = min;
+        this.maxLatency = Math.max(min, max);
+    }
+
+    /**
+     * @param lossRate probability of dropping a request without replying.
+     */
+    public void setLossRate(double lossRate) {
+
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * @param duplicateRate probability of sending a reply twice.
+     */
+    public void setDuplicateRate(double duplicateRate) {
+
+        this.duplicateRate = duplicateRate;
+    }
+
+    /**
+     * @param reorderRate probability of holding a reply back past the latency range.
+     */
+    public void setReorderRate(double reorderRate) {
+
+        this.reorderRate = reorderRate;
+    }
+
+    public long getReceived() {
+
+        return received.get();
+    }
+
+    public long getDropped() {
+
+        return dropped.get();
+    }
+
+    public long getSent() {
+
+        return sent.get();
+    }
+
+    public long getChallenges() {
+
+        return challenges.get();
+    }
+
+    @Override
+    public void run() {
+
+        ByteBuffer request = ByteBuffer.allocate(RadiusPacket.MAX_PACKET_LENGTH);
+        try {
+            while (true) {
+                request.clear();
+                SocketAddress client = channel.receive(request);
+                received.incrementAndGet();
+                int length = request.position();
+                if (length < 20 || request.get(0) != ACCESS_REQUEST) {
+                    continue;
+                }
+                if (random.nextDouble() < lossRate) {
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                byte[] packet = Arrays.copyOf(request.array(), length);
+                String key = client + "/" + (packet[1] & 0xff) + "/"
+                        + Arrays.toString(Arrays.copyOfRange(packet, 4, 20));
+                byte[] reply = replies.get(key);
+                if (reply == null) {
+                    reply = answer(packet);
+                    replies.put(key, reply);
+                }
+                long delay = minLatency + (maxLatency > minLatency
+                        ? (long) (random.nextDouble() * (maxLatency - minLatency)) : 0);
+                if (random.nextDouble() < reorderRate) {
+                    delay += maxLatency + 5;
+                }
+                schedule(reply, client, delay);
+                if (random.nextDouble() < duplicateRate) {
+                    schedule(reply, client, delay + 1);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Closed, stop answering
+        } catch (IOException e) {
+            throw new IllegalStateException("CASQUE stub server failed", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        sender.shutdownNow();
+        channel.close();
+    }
+
+    private void schedule(final byte[] reply, final SocketAddress client, long delay) {
+
+        sender.schedule(() -> {
+            try {
+                channel.send(ByteBuffer.wrap(reply), client);
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                // Closed while the reply was waiting
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Work out the reply to a request, following the CASQUE SNR flow.
+     */
+    private byte[] answer(byte[] packet) {
+
+        String password = null;
+        byte[] state = null;
+        int offset = 20;
+        int length = Math.min(packet.length, ((packet[2] & 0xff) << 8) | (packet[3] & 0xff));
+        while (offset + 2 <= length) {
+            int type = packet[offset];
+            int attributeLength = packet[offset + 1] & 0xff;
+            if (attributeLength < 2 || offset + attributeLength > length) {
+                return reply(packet, RadiusResponse.ACCESS_REJECT, null, null);
+            }
+            if (type == USER_PASSWORD) {
+                password = revealPassword(packet, offset + 2, attributeLength - 2);
+            } else if (type == STATE) {
+                state = Arrays.copyOfRange(packet, offset + 2, offset + attributeLength);
+            }
+            offset += attributeLength;
+        }
+        if (password == null) {
+            return reply(packet, RadiusResponse.ACCESS_REJECT, null, null);
+        }
+        if (state == null) {
+            if (!TOKEN_PASSWORD.matcher(password).matches()) {
+                return reply(packet, RadiusResponse.ACCESS_REJECT, null, null);
+            }
+            byte[] newState = new byte[16];
+            random.nextBytes(newState);
+            states.add(Arrays.toString(newState));
+            challenges.incrementAndGet();
+            byte[] message = ("CHALLENGE " + challenges.get()).getBytes(StandardCharsets.UTF_8);
+            return reply(packet, RadiusResponse.ACCESS_CHALLENGE, message, newState);
+        }
+        if (states.remove(Arrays.toString(state)) && expectedResponse.equals(password)) {
+            return reply(packet, RadiusResponse.ACCESS_ACCEPT, null, null);
+        }
+        return reply(packet, RadiusResponse.ACCESS_REJECT, null, null);
+    }
+
+    /**
+     * Undo the User-Password hiding of RFC 2865 with the shared secret.
+     *
+     * @return the password, or null if it does not decode to UTF-8 text.
+     */
+    private String revealPassword(byte[] packet, int offset, int length) {
+
+        if (length == 0 || length % 16 != 0) {
+            return null;
+        }
+        byte[] plain = new byte[length];
+        int previous = 4;
+        for (int i = 0; i < length; i += 16) {
+            md5.reset();
+            md5.update(secret);
+            md5.update(packet, previous, 16);
+            byte[] digest = md5.digest();
+            for (int j = 0; j < 16; j++) {
+                plain[i + j] = (byte) (packet[offset + i + j] ^ digest[j]);
+            }
+            previous = offset + i;
+        }
+        int end = length;
+        while (end > 0 && plain[end - 1] == 0) {
+            end--;
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(plain, 0, end)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Build a reply signed with the shared secret.
+     */
+    private byte[] reply(byte[] request, int type, byte[] message, byte[] state) {
+
+        int length = 20 + (message == null ? 0 : message.length + 2) + (state == null ? 0 : state.length + 2);
+        byte[] reply = new byte[length];
+        reply[0] = (byte) type;
+        reply[1] = request[1];
+        reply[2] = (byte) (length >> 8);
+        reply[3] = (byte) length;
+        System.arraycopy(request, 4, reply, 4, 16);
+        int offset = 20;
+        if (message != null) {
+            reply[offset++] = REPLY_MESSAGE;
+            reply[offset++] = (byte) (message.length + 2);
+            System.arraycopy(message, 0, reply, offset, message.length);
+            offset += message.length;
+        }
+        if (state != null) {
+            reply[offset++] = STATE;
+            reply[offset++] = (byte) (state.length + 2);
+            System.arraycopy(state, 0, reply, offset, state.length);
+        }
+        md5.reset();
+        md5.update(reply);
+        md5.update(secret);
+        System.arraycopy(md5.digest(), 0, reply, 4, 16);
+        return reply;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CircuitBreakerTest {
+
+    @Test(description = "Test case for the circuit opening after consecutive failures.")
+    public void testOpensAfterThreshold() {
+
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000, 1);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test(description = "Test case for a half open probe closing the circuit.")
+    public void testProbeClosesCircuit() {
+
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0, 1);
+        breaker.recordFailure();
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        Assert.assertFalse(breaker.tryAcquire());
+        breaker.recordSuccess();
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    }
+
+    @Test(description = "Test case for a failed half open probe opening the circuit again.")
+    public void testFailedProbeReopensCircuit() {
+
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0, 2);
+        breaker.recordFailure();
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+        breaker.recordFailure();
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    }
+
+    @Test(description = "Test case for a half open probe that was never sent.")
+    public void testProbeNotSent() {
+
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0, 1);
+        breaker.recordFailure();
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.recordNotSent();
+        Assert.assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        // The probe is handed back, the next request tests the server
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test(description = "Test case for an empty histogram.")
+    public void testEmpty() {
+
+        LatencySnapshot snapshot = new LatencyHistogram().snapshot();
+        Assert.assertEquals(snapshot.getCount(), 0);
+        Assert.assertEquals(snapshot.getMean(), 0.0, 0.001);
+        Assert.assertEquals(snapshot.getP99(), 0.0, 0.001);
+    }
+
+    @Test(description = "Test case for the percentiles of recorded latencies.")
+    public void testPercentiles() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3000000L);         // 3 ms, in the 5 ms bucket
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(150000000L);       // 150 ms, in the 200 ms bucket
+        }
+        histogram.record(40000000000L);         // 40 s, above the last bound
+        LatencySnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 100);
+        Assert.assertEquals(snapshot.getP50(), 5.0, 0.001);
+        Assert.assertEquals(snapshot.getP90(), 5.0, 0.001);
+        Assert.assertEquals(snapshot.getP99(), 200.0, 0.001);
+        Assert.assertEquals(snapshot.getMax(), 40000.0, 0.001);
+        Assert.assertEquals(snapshot.getMean(), (90 * 3 + 9 * 150 + 40000) / 100.0, 0.001);
+    }
+
+    @Test(description = "Test case for a percentile reported below its bucket bound.")
+    public void testPercentileCappedAtMax() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1200000L);
+        Assert.assertEquals(histogram.snapshot().getP50(), 1.2, 0.001);
+    }
+}
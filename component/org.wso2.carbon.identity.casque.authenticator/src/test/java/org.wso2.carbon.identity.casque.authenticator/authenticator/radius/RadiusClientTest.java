@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RadiusClientTest {
+
+    private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+    private static final int ID_SPACE = RadiusIdentifierAllocator.ID_SPACE;
+
+    // Never replies, so every request stays outstanding until the client is closed
+    private DatagramSocket server;
+    private InetSocketAddress address;
+    private RttEstimator rtt;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        server.setReceiveBufferSize(4 * 1024 * 1024);
+        server.setSoTimeout(2000);
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        rtt = new RttEstimator(60000, 60000, 60000);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+
+        server.close();
+    }
+
+    @Test(description = "Test case for each request going out on the port with the fewest outstanding.")
+    public void testLeastOutstanding() throws Exception {
+
+        RadiusClient client = new RadiusClient(new int[]{0, 0, 0}, 3, 2);
+        try {
+            for (int i = 0; i < 30; i++) {
+                send(client);
+            }
+            Map<Integer, Set<Integer>> ports = receive(30);
+            Assert.assertEquals(ports.size(), 3);
+            for (Set<Integer> ids : ports.values()) {
+                Assert.assertEquals(ids.size(), 10);
+            }
+            Assert.assertEquals(client.getPoolSize(), 3);
+            Assert.assertEquals(client.getOutstanding(), 30);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(description = "Test case for the pool opening ports up to its maximum as Identifiers run out.")
+    public void testExpand() throws Exception {
+
+        RadiusClient client = new RadiusClient(new int[]{0}, 3, 8);
+        List<CompletableFuture<RadiusResponse>> futures = new ArrayList<>();
+        try {
+            // A thread for each port the pool may grow to, not just the one it starts with
+            Assert.assertEquals(client.getSelectorCount(), 3);
+            for (int i = 0; i < ID_SPACE; i++) {
+                futures.add(send(client));
+            }
+            Assert.assertEquals(client.getPoolSize(), 1);
+            futures.add(send(client));
+            Assert.assertEquals(client.getPoolSize(), 2);
+            for (int i = 0; i < 2 * ID_SPACE - 1; i++) {
+                futures.add(send(client));
+            }
+            Assert.assertEquals(client.getPoolSize(), 3);
+            Assert.assertEquals(client.getOutstanding(), 3 * ID_SPACE);
+
+            Map<Integer, Set<Integer>> ports = receive(3 * ID_SPACE);
+            Assert.assertEquals(ports.size(), 3);
+            for (Set<Integer> ids : ports.values()) {
+                Assert.assertEquals(ids.size(), ID_SPACE);
+            }
+            for (CompletableFuture<RadiusResponse> future : futures) {
+                Assert.assertFalse(future.isDone());
+            }
+
+            // Every port full and the pool at its maximum, the request fails without being sent
+            RadiusResponse full = send(client).getNow(null);
+            Assert.assertNotNull(full);
+            Assert.assertEquals(full.getType(), RadiusResponse.RADIUS_ERROR);
+            Assert.assertTrue(full.isLocal());
+            Assert.assertEquals(client.getPoolSize(), 3);
+        } finally {
+            client.close();
+        }
+        for (CompletableFuture<RadiusResponse> future : futures) {
+            Assert.assertTrue(future.get().isLocal());
+        }
+    }
+
+    @Test(description = "Test case for concurrent senders growing the pool only as far as needed.")
+    public void testConcurrentExpand() throws Exception {
+
+        final RadiusClient client = new RadiusClient(new int[]{0}, 8, 2);
+        final int threads = 8;
+        final int perThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        Assert.assertFalse(send(client).isDone(), "Request failed without being sent");
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            int total = threads * perThread;
+            Assert.assertEquals(client.getOutstanding(), total);
+            Assert.assertEquals(client.getPoolSize(), (total + ID_SPACE - 1) / ID_SPACE);
+
+            // No Identifier is used twice on a port
+            int received = 0;
+            for (Set<Integer> ids : receive(total).values()) {
+                received += ids.size();
+            }
+            Assert.assertEquals(received, total);
+        } finally {
+            executor.shutdown();
+            client.close();
+        }
+    }
+
+    private CompletableFuture<RadiusResponse> send(RadiusClient client) {
+
+        return client.send("casque1", "FFF 000001casque1", null, address, rtt, SECRET, 1);
+    }
+
+    /**
+     * Read the requests that reached the server.
+     *
+     * @return the Identifiers received by source port.
+     */
+    private Map<Integer, Set<Integer>> receive(int count) throws Exception {
+
+        Map<Integer, Set<Integer>> ports = new TreeMap<>();
+        DatagramPacket packet = new DatagramPacket(new byte[RadiusPacket.MAX_PACKET_LENGTH],
+                RadiusPacket.MAX_PACKET_LENGTH);
+        for (int i = 0; i < count; i++) {
+            try {
+                server.receive(packet);
+            } catch (SocketTimeoutException e) {
+                Assert.fail("Only " + i + " of " + count + " requests were sent");
+            }
+            Set<Integer> ids = ports.computeIfAbsent(packet.getPort(), port -> new HashSet<>());
+            Assert.assertTrue(ids.add(packet.getData()[1] & 0xff), "Identifier sent twice on a port");
+        }
+        return ports;
+    }
+}
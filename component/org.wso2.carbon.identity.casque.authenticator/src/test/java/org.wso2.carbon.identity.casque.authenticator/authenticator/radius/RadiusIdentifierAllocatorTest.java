@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class RadiusIdentifierAllocatorTest {
+
+    @Test(description = "Test case for every Identifier being handed out once until all 256 are in use.")
+    public void testAllInUse() {
+
+        RadiusIdentifierAllocator allocator = new RadiusIdentifierAllocator();
+        for (int id = 0; id < RadiusIdentifierAllocator.ID_SPACE; id++) {
+            Assert.assertEquals(allocator.allocate(), id);
+        }
+        Assert.assertEquals(allocator.getOutstanding(), RadiusIdentifierAllocator.ID_SPACE);
+        Assert.assertEquals(allocator.allocate(), -1);
+        Assert.assertEquals(allocator.getOutstanding(), RadiusIdentifierAllocator.ID_SPACE);
+
+        // A released Identifier is the only one free, it is found wherever the scan starts
+        allocator.release(130);
+        Assert.assertEquals(allocator.getOutstanding(), RadiusIdentifierAllocator.ID_SPACE - 1);
+        Assert.assertEquals(allocator.allocate(), 130);
+        Assert.assertEquals(allocator.allocate(), -1);
+    }
+
+    @Test(description = "Test case for released Identifiers not being reused straight away.")
+    public void testRelease() {
+
+        RadiusIdentifierAllocator allocator = new RadiusIdentifierAllocator();
+        Assert.assertEquals(allocator.allocate(), 0);
+        Assert.assertEquals(allocator.allocate(), 1);
+        allocator.release(0);
+        Assert.assertEquals(allocator.getOutstanding(), 1);
+        Assert.assertEquals(allocator.allocate(), 2);
+
+        // Releasing twice, or an Identifier never allocated, does not free anything else
+        allocator.release(0);
+        allocator.release(200);
+        Assert.assertEquals(allocator.getOutstanding(), 2);
+        allocator.release(1);
+        allocator.release(2);
+        Assert.assertEquals(allocator.getOutstanding(), 0);
+    }
+
+    @Test(description = "Test case for the round robin wrapping past Identifier 255.")
+    public void testWraparound() {
+
+        RadiusIdentifierAllocator allocator = new RadiusIdentifierAllocator();
+        for (int i = 0; i < 250; i++) {
+            allocator.release(allocator.allocate());
+        }
+        int held = allocator.allocate();
+        Assert.assertEquals(held, 250);
+        for (int expected = 251; expected < 256; expected++) {
+            Assert.assertEquals(allocator.allocate(), expected);
+        }
+        Assert.assertEquals(allocator.allocate(), 0);
+        allocator.release(0);
+
+        // Round the whole space again, the Identifiers still held are skipped
+        for (int i = 0; i < 249; i++) {
+            int id = allocator.allocate();
+            Assert.assertTrue(id >= 1 && id < 250, "Identifier " + id);
+            allocator.release(id);
+        }
+        Assert.assertEquals(allocator.allocate(), 0);
+        Assert.assertEquals(allocator.getOutstanding(), 7);
+    }
+
+    @Test(description = "Test case for concurrent callers never holding the same Identifier.")
+    public void testConcurrent() throws Exception {
+
+        final RadiusIdentifierAllocator allocator = new RadiusIdentifierAllocator();
+        final AtomicIntegerArray holders = new AtomicIntegerArray(RadiusIdentifierAllocator.ID_SPACE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(() -> {
+                    List<Integer> held = new ArrayList<>();
+                    for (int i = 0; i < 20000; i++) {
+                        int id = allocator.allocate();
+                        if (id >= 0) {
+                            Assert.assertTrue(holders.compareAndSet(id, 0, 1),
+                                    "Identifier " + id + " handed out twice");
+                            held.add(id);
+                        }
+                        // Hold up to 40 each, so 8 threads run the space out now and then
+                        if (!held.isEmpty() && (id < 0 || held.size() > 40)) {
+                            int released = held.remove(0);
+                            holders.set(released, 0);
+                            allocator.release(released);
+                        }
+                    }
+                    for (int id : held) {
+                        holders.set(id, 0);
+                        allocator.release(id);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(allocator.getOutstanding(), 0);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public class RadiusPacketTest {
+
+    private static final String SECRET = "testing123";
+    private static final byte[] SECRET_BYTES = SECRET.getBytes(StandardCharsets.UTF_8);
+
+    @Test(description = "Test case for encoding the request attributes.")
+    public void testEncodeRequest() throws Exception {
+
+        byte[] buf = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+        byte[] state = {1, 2, 3};
+        int length = RadiusPacket.encodeRequest(buf, 42, "us\u00e9r", "a password longer than 16", state, SECRET_BYTES);
+
+        Assert.assertEquals(buf[0], RadiusResponse.ACCESS_REQUEST);
+        Assert.assertEquals(buf[1], 42);
+        Assert.assertEquals((buf[2] & 0xff) * 256 + (buf[3] & 0xff), length);
+        int offset = 20;
+        Assert.assertEquals(buf[offset], 1);
+        Assert.assertEquals(new String(buf, offset + 2, buf[offset + 1] - 2, StandardCharsets.UTF_8), "us\u00e9r");
+        offset += buf[offset + 1];
+        Assert.assertEquals(buf[offset], 2);
+        Assert.assertEquals(buf[offset + 1], 34);
+        Assert.assertEquals(unhide(buf, offset + 2, 32), "a password longer than 16");
+        offset += buf[offset + 1];
+        Assert.assertEquals(buf[offset], 24);
+        Assert.assertEquals(Arrays.copyOfRange(buf, offset + 2, offset + 5), state);
+        offset += buf[offset + 1];
+        Assert.assertEquals(buf[offset], 6);
+        Assert.assertEquals(offset + 6, length);
+    }
+
+    @Test(description = "Test case for the request builder without an allocated Identifier.")
+    public void testFormRequestPacket() {
+
+        RadiusPacket packet = new RadiusPacket(SECRET_BYTES);
+        byte[] first = packet.formRequestPacket("user", "pass", null);
+        byte[] second = packet.formRequestPacket("user", "pass", null);
+        Assert.assertEquals(first[0], RadiusResponse.ACCESS_REQUEST);
+        Assert.assertEquals((first[1] + 1) & 0xff, second[1] & 0xff);
+        Assert.assertEquals(first.length, packet.formRequestPacket(7, "user", "pass", null).length);
+        Assert.assertEquals(new String(first, 22, first[21] - 2, StandardCharsets.UTF_8), "user");
+    }
+
+    @Test(description = "Test case for an attribute which is too long to encode.")
+    public void testEncodeAttributeTooLong() {
+
+        char[] uid = new char[254];
+        Arrays.fill(uid, 'a');
+        Assert.assertEquals(RadiusPacket.encodeRequest(new byte[RadiusPacket.MAX_PACKET_LENGTH], 1,
+                new String(uid), "pass", null, SECRET_BYTES), RadiusResponse.ATTRIBUTE_ERROR);
+        char[] pass = new char[RadiusPacket.MAX_PASSWORD_LENGTH + 1];
+        Arrays.fill(pass, 'p');
+        Assert.assertEquals(RadiusPacket.encodeRequest(new byte[RadiusPacket.MAX_PACKET_LENGTH], 1,
+                "user", new String(pass), null, SECRET_BYTES), RadiusResponse.ATTRIBUTE_ERROR);
+    }
+
+    @Test(description = "Test case for parsing a reply against the request authenticator.")
+    public void testParseResponse() throws Exception {
+
+        byte[] request = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+        RadiusPacket.encodeRequest(request, 7, "user", "pass", null, SECRET_BYTES);
+
+        byte[] reply = {RadiusResponse.ACCESS_CHALLENGE, 7, 0, 30, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                24, 4, 9, 8, 18, 6, 'a', '+', '/', 'd'};
+        sign(reply, request);
+
+        RadiusResponse response = RadiusPacket.parseResponse(reply, reply.length, request, 4, SECRET_BYTES);
+        Assert.assertEquals(response.getType(), RadiusResponse.ACCESS_CHALLENGE);
+        Assert.assertEquals(response.getState(), new byte[]{9, 8});
+        Assert.assertEquals(response.getChallenge(), "a-_d");
+
+        reply[25] ^= 1;
+        response = RadiusPacket.parseResponse(reply, reply.length, request, 4, SECRET_BYTES);
+        Assert.assertEquals(response.getType(), RadiusResponse.DIGEST_ERROR);
+    }
+
+    @Test(description = "Test case for a reply with an attribute running past the end of the packet.")
+    public void testParseResponseBadAttribute() throws Exception {
+
+        byte[] request = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+        RadiusPacket.encodeRequest(request, 7, "user", "pass", null, SECRET_BYTES);
+
+        byte[] reply = {RadiusResponse.ACCESS_ACCEPT, 7, 0, 26, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                24, 4, 9, 8, 18, 6};
+        sign(reply, request);
+
+        RadiusResponse response = RadiusPacket.parseResponse(reply, reply.length, request, 4, SECRET_BYTES);
+        Assert.assertEquals(response.getType(), RadiusResponse.ATTRIBUTE_ERROR);
+    }
+
+    private static void sign(byte[] reply, byte[] request) throws Exception {
+
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(reply, 0, 4);
+        md.update(request, 4, 16);
+        md.update(reply, 20, reply.length - 20);
+        md.update(SECRET.getBytes(StandardCharsets.UTF_8));
+        System.arraycopy(md.digest(), 0, reply, 4, 16);
+    }
+
+    private static String unhide(byte[] buf, int offset, int length) throws Exception {
+
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] plain = new byte[length];
+        int previous = 4;
+        for (int i = 0; i < length; i += 16) {
+            md.update(SECRET.getBytes(StandardCharsets.UTF_8));
+            md.update(buf, previous, 16);
+            byte[] digest = md.digest();
+            for (int j = 0; j < 16; j++) {
+                plain[i + j] = (byte) (buf[offset + i + j] ^ digest[j]);
+            }
+            previous = offset + i;
+        }
+        int end = 0;
+        while (end < length && plain[end] != 0) {
+            end++;
+        }
+        return new String(plain, 0, end, StandardCharsets.UTF_8);
+    }
+}
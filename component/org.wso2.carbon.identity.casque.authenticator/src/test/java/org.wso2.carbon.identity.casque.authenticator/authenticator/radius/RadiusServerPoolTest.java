@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RadiusServerPoolTest {
+
+    @Test(description = "Test case for a server whose host name resolves to a new address.")
+    public void testResolve() throws Exception {
+
+        InetAddress stale = InetAddress.getByAddress("localhost", new byte[]{(byte) 192, 0, 2, 1});
+        CasqueServer server = new CasqueServer("localhost", stale, 1812, 1);
+        RadiusServerPool pool = new RadiusServerPool(Collections.singletonList(server),
+                CasqueAuthenticatorConstants.WEIGHTED_ROUND_ROBIN, 3, 30000, 1, 1000, 250, 5000);
+        CircuitBreaker breaker = pool.getCircuitBreaker(server);
+        RttEstimator rtt = pool.getRttEstimator(server);
+
+        pool.resolve();
+        CasqueServer resolved = pool.get("localhost:1812");
+        Assert.assertEquals(resolved.getAddress().getAddress(), InetAddress.getByName("localhost"));
+        Assert.assertEquals(resolved.getAddress().getPort(), 1812);
+        Assert.assertEquals(pool.order(), Collections.singletonList(resolved));
+        Assert.assertEquals(pool.getServers(), Collections.singletonList(resolved));
+        // In flight requests still hold the old server, its state carries over
+        Assert.assertSame(pool.getCircuitBreaker(server), breaker);
+        Assert.assertSame(pool.getRttEstimator(resolved), rtt);
+    }
+
+    @Test(description = "Test case for the smooth weighted round robin order.")
+    public void testWeightedRoundRobin() throws Exception {
+
+        CasqueServer a = server(1812, 5);
+        CasqueServer b = server(1813, 1);
+        CasqueServer c = server(1814, 1);
+        RadiusServerPool pool = new RadiusServerPool(Arrays.asList(a, b, c),
+                CasqueAuthenticatorConstants.WEIGHTED_ROUND_ROBIN, 3, 30000, 1, 1000, 250, 5000);
+
+        // Spread out in proportion to the weights, not in bursts, and repeating every total weight
+        List<CasqueServer> expected = Arrays.asList(a, a, b, a, c, a, a);
+        for (int round = 0; round < 2; round++) {
+            Assert.assertEquals(firsts(pool, expected.size()), expected);
+        }
+        Assert.assertEquals(pool.order(), Arrays.asList(a, b, c));
+
+        // A server with an open circuit is left out of the rotation and tried last
+        CircuitBreaker breaker = pool.getCircuitBreaker(a);
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        Assert.assertEquals(firsts(pool, 4), Arrays.asList(b, c, b, c));
+        Assert.assertEquals(pool.order().get(2), a);
+    }
+
+    @Test(description = "Test case for the least latency order.")
+    public void testLeastLatency() throws Exception {
+
+        CasqueServer a = server(1812, 1);
+        CasqueServer b = server(1813, 1);
+        CasqueServer c = server(1814, 1);
+        RadiusServerPool pool = new RadiusServerPool(Arrays.asList(a, b, c),
+                CasqueAuthenticatorConstants.LEAST_LATENCY, 3, 30000, 1, 1000, 250, 5000);
+
+        // No samples yet, all count as the initial timeout and the configured order wins
+        Assert.assertEquals(pool.order(), Arrays.asList(a, b, c));
+
+        pool.getRttEstimator(b).sample(TimeUnit.MILLISECONDS.toNanos(20));
+        pool.getRttEstimator(c).sample(TimeUnit.MILLISECONDS.toNanos(10));
+        // A server that has never replied is not taken for the fastest
+        Assert.assertEquals(firsts(pool, 3), Arrays.asList(c, c, c));
+        Assert.assertEquals(pool.order(), Arrays.asList(c, a, b));
+
+        pool.getRttEstimator(a).sample(TimeUnit.MILLISECONDS.toNanos(5));
+        Assert.assertEquals(pool.order().get(0), a);
+
+        // Nor is a server whose circuit is open
+        CircuitBreaker breaker = pool.getCircuitBreaker(a);
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        Assert.assertEquals(pool.order(), Arrays.asList(c, b, a));
+    }
+
+    private static CasqueServer server(int port, int weight) {
+
+        return new CasqueServer("localhost", InetAddress.getLoopbackAddress(), port, weight);
+    }
+
+    private static List<CasqueServer> firsts(RadiusServerPool pool, int count) {
+
+        List<CasqueServer> selected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            selected.add(pool.order().get(0));
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.CasqueConfig;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RadiusTest {
+
+    private static final String SECRET = "stubsecret123456789";
+    private static final String TOKEN_PASSWORD = "FFF 000001casque1";
+
+    private CasqueStubServer server;
+    private Path confDir;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        server = new CasqueStubServer(SECRET, 42);
+        confDir = Files.createTempDirectory("casque-radius-test");
+        System.setProperty("carbon.config.dir.path", confDir.toString());
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+
+        Radius.close();
+        CasqueConfig.stopWatching();
+        server.close();
+        System.clearProperty("carbon.config.dir.path");
+        File[] files = confDir.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(confDir);
+    }
+
+    @Test(description = "Test case for a challenge and its accepted response over UDP.")
+    public void testChallengeAndAccept() throws Exception {
+
+        configure(SECRET, "");
+        RadiusResponse challenge = Radius.sendRequest("CASQUE SNR", TOKEN_PASSWORD, null);
+        Assert.assertEquals(challenge.getType(), RadiusResponse.ACCESS_CHALLENGE);
+        Assert.assertEquals(challenge.getChallenge(), "CHALLENGE 1");
+        Assert.assertEquals(challenge.getServerId(), "127.0.0.1:" + server.getPort());
+
+        RadiusResponse accept = Radius.sendRequest("casque1", CasqueStubServer.DEFAULT_RESPONSE,
+                challenge.getState(), challenge.getServerId());
+        Assert.assertEquals(accept.getType(), RadiusResponse.ACCESS_ACCEPT);
+    }
+
+    @Test(description = "Test case for a wrong response and a badly formatted Token ID.")
+    public void testReject() throws Exception {
+
+        configure(SECRET, "");
+        RadiusResponse challenge = Radius.sendRequest("CASQUE SNR", TOKEN_PASSWORD, null);
+        RadiusResponse reject = Radius.sendRequest("casque1", "WRONG", challenge.getState(),
+                challenge.getServerId());
+        Assert.assertEquals(reject.getType(), RadiusResponse.ACCESS_REJECT);
+        Assert.assertEquals(Radius.sendRequest("CASQUE SNR", "casque1", null).getType(),
+                RadiusResponse.ACCESS_REJECT);
+    }
+
+    @Test(description = "Test case for a client with another shared secret.")
+    public void testWrongSecret() throws Exception {
+
+        configure("anothersecret123456", "retry_tries 2\nretry_initial_timeout 50\nretry_min_timeout 20\n"
+                + "retry_max_timeout 100\n");
+        RadiusResponse response = Radius.sendRequest("CASQUE SNR", TOKEN_PASSWORD, null);
+        Assert.assertEquals(response.getType(), RadiusResponse.RADIUS_ERROR);
+        Assert.assertEquals(server.getReceived(), 2);
+        Assert.assertEquals(server.getChallenges(), 0);
+    }
+
+    @Test(description = "Test case for requests that can not be sent leaving the circuit closed.")
+    public void testLocalError() throws Exception {
+
+        configure(SECRET, "server_failure_threshold 3\n");
+        StringBuilder longResponse = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longResponse.append('x');
+        }
+        for (int i = 0; i < 5; i++) {
+            RadiusResponse response = Radius.sendRequest("casque1", longResponse.toString(), null);
+            Assert.assertEquals(response.getType(), RadiusResponse.ATTRIBUTE_ERROR);
+            Assert.assertTrue(response.isLocal());
+        }
+        Assert.assertEquals(server.getReceived(), 0);
+        for (CircuitBreaker.State state : Radius.getCircuitStates().values()) {
+            Assert.assertEquals(state, CircuitBreaker.State.CLOSED);
+        }
+        Assert.assertEquals(Radius.sendRequest("CASQUE SNR", TOKEN_PASSWORD, null).getType(),
+                RadiusResponse.ACCESS_CHALLENGE);
+    }
+
+    @Test(description = "Test case for a late reply to the first copy of a resent request.")
+    public void testLateReply() throws Exception {
+
+        // The reply takes 150ms, the request is resent after 100ms
+        server.setLatency(150, 150);
+        configure(SECRET, "retry_initial_timeout 100\nretry_min_timeout 20\n");
+        long retransmissions = RadiusMetrics.get().getRetransmissions();
+        long duplicates = RadiusMetrics.get().getDuplicateReplies();
+
+        RadiusResponse challenge = Radius.sendRequest("CASQUE SNR", TOKEN_PASSWORD, null);
+        Assert.assertEquals(challenge.getType(), RadiusResponse.ACCESS_CHALLENGE);
+        Assert.assertEquals(RadiusMetrics.get().getRetransmissions(), retransmissions + 1);
+        Assert.assertEquals(server.getReceived(), 2);
+        Assert.assertEquals(server.getChallenges(), 1);
+
+        // The reply to the second copy arrives while the Identifier is still held
+        long deadline = System.currentTimeMillis() + 2000;
+        while (RadiusMetrics.get().getDuplicateReplies() == duplicates && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(RadiusMetrics.get().getDuplicateReplies(), duplicates + 1);
+    }
+
+    @Test(description = "Test case for logins over a network that loses, duplicates and reorders packets.")
+    public void testImpairedNetwork() throws Exception {
+
+        server.setLatency(0, 5);
+        server.setLossRate(0.2);
+        server.setDuplicateRate(0.2);
+        server.setReorderRate(0.2);
+        configure(SECRET, "retry_tries 8\nretry_initial_timeout 50\nretry_min_timeout 20\n"
+                + "retry_max_timeout 200\nsocket_pool_size 2\n");
+        long retransmissions = RadiusMetrics.get().getRetransmissions();
+        long duplicates = RadiusMetrics.get().getDuplicateReplies();
+
+        List<CompletableFuture<RadiusResponse>> logins = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            logins.add(Radius.sendRequestAsync("CASQUE SNR", TOKEN_PASSWORD, null).thenCompose(challenge -> {
+                if (challenge.getType() != RadiusResponse.ACCESS_CHALLENGE) {
+                    return CompletableFuture.completedFuture(challenge);
+                }
+                try {
+                    return Radius.sendRequestAsync("casque1", CasqueStubServer.DEFAULT_RESPONSE,
+                            challenge.getState(), challenge.getServerId());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        for (CompletableFuture<RadiusResponse> login : logins) {
+            Assert.assertEquals(login.get().getType(), RadiusResponse.ACCESS_ACCEPT);
+        }
+        Assert.assertTrue(server.getDropped() > 0);
+        Assert.assertTrue(RadiusMetrics.get().getRetransmissions() > retransmissions);
+        Assert.assertTrue(RadiusMetrics.get().getDuplicateReplies() > duplicates);
+    }
+
+    @Test(description = "Test case for a wait bounded by the longest a request can take.")
+    public void testResponseWaitBounded() throws Exception {
+
+        configure(SECRET, "retry_tries 1\nretry_min_timeout 20\nretry_max_timeout 50\n");
+        Radius.open();
+        long started = System.nanoTime();
+        RadiusResponse response = Radius.getResponse(new CompletableFuture<>());
+        Assert.assertEquals(response.getType(), RadiusResponse.RADIUS_ERROR);
+        Assert.assertTrue(response.isLocal());
+        Assert.assertTrue(System.nanoTime() - started < 2000000000L);
+    }
+
+    @Test(description = "Test case for the startup probe reaching each server in the pool.")
+    public void testProbe() throws Exception {
+
+        configure(SECRET, "");
+        Radius.probe("casque1").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(server.getReceived(), 1);
+    }
+
+    private void configure(String secret, String extra) throws Exception {
+
+        String conf = "casque_secret " + secret + "\ncasque_address 127.0.0.1\ncasque_port " + server.getPort()
+                + "\n" + extra;
+        Files.write(confDir.resolve("casque.conf"), conf.getBytes(StandardCharsets.UTF_8));
+        CasqueConfig.stopWatching();
+        CasqueConfig.get();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * you may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator.radius;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+public class RttEstimatorTest {
+
+    @Test(description = "Test case for the timeout before and after the first sample.")
+    public void testFirstSample() {
+
+        RttEstimator estimator = new RttEstimator(1000, 250, 5000);
+        Assert.assertEquals(estimator.getTimeout(), millis(1000));
+        Assert.assertEquals(estimator.getSmoothedRtt(), 0);
+
+        // SRTT = R, RTTVAR = R / 2, RTO = SRTT + 4 * RTTVAR
+        estimator.sample(millis(100));
+        Assert.assertEquals(estimator.getSmoothedRtt(), millis(100));
+        Assert.assertEquals(estimator.getTimeout(), millis(300));
+    }
+
+    @Test(description = "Test case for the smoothing of later samples.")
+    public void testLaterSamples() {
+
+        RttEstimator estimator = new RttEstimator(1000, 250, 5000);
+        estimator.sample(millis(100));
+
+        // RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R| = 62.5 ms, SRTT = 7/8 SRTT + 1/8 R = 112.5 ms
+        estimator.sample(millis(200));
+        Assert.assertEquals(estimator.getSmoothedRtt(), TimeUnit.MICROSECONDS.toNanos(112500));
+        Assert.assertEquals(estimator.getTimeout(), TimeUnit.MICROSECONDS.toNanos(362500));
+
+        // A steady round trip time wears the variance down
+        for (int i = 0; i < 200; i++) {
+            estimator.sample(millis(200));
+        }
+        Assert.assertEquals(estimator.getSmoothedRtt(), millis(200), millis(1));
+        Assert.assertEquals(estimator.getTimeout(), millis(250), millis(1));
+    }
+
+    @Test(description = "Test case for the timeout bounds.")
+    public void testClamp() {
+
+        Assert.assertEquals(new RttEstimator(10, 250, 5000).getTimeout(), millis(250));
+        Assert.assertEquals(new RttEstimator(60000, 250, 5000).getTimeout(), millis(5000));
+
+        RttEstimator fast = new RttEstimator(1000, 250, 5000);
+        fast.sample(millis(1));
+        Assert.assertEquals(fast.getSmoothedRtt(), millis(1));
+        Assert.assertEquals(fast.getTimeout(), millis(250));
+
+        RttEstimator slow = new RttEstimator(1000, 250, 5000);
+        slow.sample(millis(3000));
+        Assert.assertEquals(slow.getTimeout(), millis(5000));
+    }
+
+    @Test(description = "Test case for the timeout doubling on each resend.")
+    public void testBackoff() {
+
+        RttEstimator estimator = new RttEstimator(1000, 250, 5000);
+        Assert.assertEquals(estimator.backoff(millis(1000)), millis(2000));
+        Assert.assertEquals(estimator.backoff(millis(2000)), millis(4000));
+        Assert.assertEquals(estimator.backoff(millis(4000)), millis(5000));
+        Assert.assertEquals(estimator.backoff(millis(5000)), millis(5000));
+
+        RadiusExchange exchange = exchange(estimator, 4);
+        long[] expected = {millis(1000), millis(2000), millis(4000), millis(5000)};
+        for (long timeout : expected) {
+            Assert.assertTrue(exchange.hasTriesLeft());
+            long before = System.nanoTime();
+            exchange.sent();
+            long after = System.nanoTime();
+            Assert.assertTrue(exchange.getDeadline() - before >= timeout);
+            Assert.assertTrue(exchange.getDeadline() - after <= timeout);
+        }
+        Assert.assertFalse(exchange.hasTriesLeft());
+        Assert.assertTrue(exchange.isResent());
+    }
+
+    @Test(description = "Test case for only replies to requests sent once being sampled.")
+    public void testKarn() {
+
+        RttEstimator estimator = new RttEstimator(1000, 250, 5000);
+        RadiusExchange resent = exchange(estimator, 3);
+        resent.sent();
+        resent.sent();
+        resent.replied(System.nanoTime());
+        Assert.assertEquals(estimator.getSmoothedRtt(), 0);
+        Assert.assertEquals(estimator.getTimeout(), millis(1000));
+
+        RadiusExchange once = exchange(estimator, 3);
+        once.sent();
+        once.replied(System.nanoTime() + millis(20));
+        Assert.assertTrue(estimator.getSmoothedRtt() >= millis(20));
+        Assert.assertTrue(estimator.getSmoothedRtt() < millis(1000));
+    }
+
+    private static RadiusExchange exchange(RttEstimator estimator, int tries) {
+
+        return new RadiusExchange(null, 0, ByteBuffer.allocate(RadiusPacket.MAX_PACKET_LENGTH), null, estimator,
+                new byte[0], tries);
+    }
+
+    private static long millis(long millis) {
+
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
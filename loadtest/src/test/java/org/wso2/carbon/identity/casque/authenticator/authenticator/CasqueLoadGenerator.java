@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.wso2.carbon.identity.application.authentication.framework.AuthenticatorFlowStatus;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.identity.application.authentication.framework.exception.LogoutFailedException;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.internal.CasqueAuthenticatorServiceDataHolder;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.CasqueStubServer;
+import org.wso2.carbon.identity.casque.authenticator.authenticator.radius.Radius;
+import org.wso2.carbon.identity.casque.authenticator.constants.CasqueAuthenticatorConstants;
+import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.user.core.service.RealmService;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Load generator for sizing Identity Server nodes.
+ * Each simulated user is a thread running logins back to back through
+ * CasqueAuthenticator.process, the way the authentication framework calls it: a first
+ * request that gets the challenge page and a second that answers it. The RADIUS traffic goes
+ * over UDP to an in-process CASQUE SNR stub, the user store and servlet objects are stubs.
+ * After a warm up it measures for a fixed time and reports the throughput, the latency of each
+ * leg and of the whole login less the think time, and the allocation rate of the
+ * authenticator's threads, e.g.
+ * mvn -f loadtest/pom.xml test-compile exec:java -Dloadtest.args="-concurrency 4000 -think 2000"
+ */
+public final class CasqueLoadGenerator {
+
+    private static final String SECRET = "loadtest-secret-0123456789";
+    private static final String USER_PREFIX = "loadtest-user-";
+    private static final String CONFIG_DIR_PROPERTY = "carbon.config.dir.path";
+    private static final long THREAD_STACK_SIZE = 256 * 1024;
+    private static final String USAGE = "Options:\n"
+            + "  -concurrency n   simulated users logging in at once (1000)\n"
+            + "  -warmup s        seconds before measuring (10)\n"
+            + "  -duration s      seconds to measure (30)\n"
+            + "  -think ms        time a user takes to answer the challenge (0)\n"
+            + "  -latency ms      delay of each CASQUE SNR reply (0)\n"
+            + "  -loss rate       fraction of requests the CASQUE SNR drops (0)\n"
+            + "  -servers n       CASQUE SNR stubs to spread the requests over (1)\n"
+            + "  -sockets n       socket_pool_size of the RADIUS client (4)\n"
+            + "  -receivers n     receive_threads of the RADIUS client, 0 for the default (0)\n"
+            + "  -virtual b       run the users on virtual threads, Java 21+ (false)\n"
+            + "  -index b         keep the pending challenges on this node instead of in the context (false)";
+
+    private int concurrency = 1000;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 30;
+    private long thinkMillis = 0;
+    private long latencyMillis = 0;
+    private double lossRate = 0;
+    private int serverCount = 1;
+    private int sockets = 4;
+    private int receivers = 0;
+    private boolean virtual = false;
+    private boolean index = false;
+
+    private final CasqueAuthenticator authenticator = new CasqueAuthenticator();
+    private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+
+    public static void main(String[] args) throws Exception {
+
+        CasqueLoadGenerator generator = new CasqueLoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        generator.run();
+    }
+
+    private void parse(String[] args) {
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No value for " + args[i]);
+            }
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "-concurrency":
+                        concurrency = Integer.parseInt(value);
+                        break;
+                    case "-warmup":
+                        warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "-duration":
+                        durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "-think":
+                        thinkMillis = Long.parseLong(value);
+                        break;
+                    case "-latency":
+                        latencyMillis = Long.parseLong(value);
+                        break;
+                    case "-loss":
+                        lossRate = Double.parseDouble(value);
+                        break;
+                    case "-servers":
+                        serverCount = Integer.parseInt(value);
+                        break;
+                    case "-sockets":
+                        sockets = Integer.parseInt(value);
+                        break;
+                    case "-receivers":
+                        receivers = Integer.parseInt(value);
+                        break;
+                    case "-virtual":
+                        virtual = Boolean.parseBoolean(value);
+                        break;
+                    case "-index":
+                        index = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value " + value + " for " + args[i]);
+            }
+        }
+        if (concurrency < 1 || concurrency > 999999 || durationSeconds < 1 || serverCount < 1) {
+            throw new IllegalArgumentException("The concurrency, duration and servers must be positive");
+        }
+    }
+
+    private void run() throws Exception {
+
+        List<CasqueStubServer> servers = new ArrayList<>(serverCount);
+        Path confDir = Files.createTempDirectory("casque-loadtest");
+        try {
+            StringBuilder conf = new StringBuilder("casque_secret " + SECRET + "\n"
+                    + "socket_pool_size " + sockets + "\n"
+                    + (receivers > 0 ? "receive_threads " + receivers + "\n" : "")
+                    + "token_cache_size " + Math.max(10000, concurrency) + "\n"
+                    + "challenge_index_size " + (index ? Math.max(10000, concurrency) : 0) + "\n");
+            for (int i = 0; i < serverCount; i++) {
+                CasqueStubServer server = new CasqueStubServer(SECRET, i + 1);
+                servers.add(server);
+                server.setLatency(latencyMillis, latencyMillis);
+                server.setLossRate(lossRate);
+                if (i == 0) {
+                    conf.append("casque_address 127.0.0.1\ncasque_port ").append(server.getPort()).append('\n');
+                } else {
+                    conf.append("casque_server 127.0.0.1 ").append(server.getPort()).append('\n');
+                }
+            }
+            Files.write(confDir.resolve("casque.conf"), conf.toString().getBytes(StandardCharsets.UTF_8));
+            System.setProperty(CONFIG_DIR_PROPERTY, confDir.toString());
+            CasqueConfig.get();
+            Radius.open();
+            RealmService realmService = LoadTestStubs.realmService();
+            CasqueAuthenticatorServiceDataHolder.getInstance().setRealmService(realmService);
+            IdentityTenantUtil.setRealmService(realmService);
+
+            List<VirtualUser> users = new ArrayList<>(concurrency);
+            List<Thread> threads = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                VirtualUser user = new VirtualUser(i);
+                Thread thread = newThread(user, "CASQUE-Load-" + i);
+                users.add(user);
+                threads.add(thread);
+            }
+            System.out.printf(Locale.ROOT, "%d users, %d s warm up, %d s measured, think %d ms, "
+                            + "%d CASQUE SNR stubs, latency %d ms, loss %.3f%s%s%n", concurrency, warmupSeconds,
+                    durationSeconds, thinkMillis, serverCount, latencyMillis, lossRate,
+                    virtual ? ", virtual threads" : "", index ? ", challenge index" : "");
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            TimeUnit.SECONDS.sleep(warmupSeconds);
+
+            long[] measuredThreads = measuredThreadIds(threads, virtual);
+            long allocatedBefore = allocatedBytes(measuredThreads);
+            long gcCountBefore = gcCount();
+            long gcTimeBefore = gcTime();
+            long start = System.nanoTime();
+            measuring = true;
+            TimeUnit.SECONDS.sleep(durationSeconds);
+            measuring = false;
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes(measuredThreads) - allocatedBefore;
+            long gcCount = gcCount() - gcCountBefore;
+            long gcTime = gcTime() - gcTimeBefore;
+
+            running = false;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            report(users, elapsed, allocatedBefore < 0 ? -1 : allocated, gcCount, gcTime, servers);
+        } finally {
+            Radius.close();
+            CasqueConfig.stopWatching();
+            authenticator.close();
+            for (CasqueStubServer server : servers) {
+                server.close();
+            }
+            System.clearProperty(CONFIG_DIR_PROPERTY);
+            File[] files = confDir.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.delete(file.toPath());
+                }
+            }
+            Files.delete(confDir);
+        }
+    }
+
+    private void report(List<VirtualUser> users, long elapsedNanos, long allocated, long gcCount, long gcTime,
+                        List<CasqueStubServer> servers) {
+
+        LatencyRecorder challengeLeg = new LatencyRecorder();
+        LatencyRecorder responseLeg = new LatencyRecorder();
+        LatencyRecorder login = new LatencyRecorder();
+        long failed = 0;
+        for (VirtualUser user : users) {
+            challengeLeg.add(user.challengeLeg);
+            responseLeg.add(user.responseLeg);
+            login.add(user.login);
+            failed += user.failed;
+        }
+        double seconds = elapsedNanos / 1e9;
+        long completed = login.getCount();
+        System.out.printf(Locale.ROOT, "Logins: %d completed, %d failed, %.1f logins/s%n", completed, failed,
+                completed / seconds);
+        System.out.printf(Locale.ROOT, "%-14s %10s %10s %10s %10s %10s %10s%n", "Latency (ms)", "count", "mean",
+                "p50", "p99", "p99.9", "max");
+        printLatency("challenge leg", challengeLeg);
+        printLatency("response leg", responseLeg);
+        printLatency("login", login);
+        if (allocated < 0) {
+            System.out.println("Allocation: not measurable on this JVM");
+        } else {
+            System.out.printf(Locale.ROOT, "Allocation: %.1f MB/s, %.1f KB per login%n",
+                    allocated / seconds / (1024 * 1024), completed == 0 ? 0 : allocated / 1024.0 / completed);
+        }
+        System.out.printf(Locale.ROOT, "GC: %d collections, %d ms%n", gcCount, gcTime);
+        long received = 0;
+        long dropped = 0;
+        for (CasqueStubServer server : servers) {
+            received += server.getReceived();
+            dropped += server.getDropped();
+        }
+        System.out.printf(Locale.ROOT, "CASQUE SNR stubs: %d requests received, %d dropped%n", received, dropped);
+        Throwable failure = firstFailure.get();
+        if (failure != null) {
+            System.out.println("First failure:");
+            failure.printStackTrace(System.out);
+        }
+    }
+
+    private static void printLatency(String name, LatencyRecorder recorder) {
+
+        System.out.printf(Locale.ROOT, "%-14s %10d %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                recorder.getCount(), recorder.getMean(), recorder.percentile(0.5), recorder.percentile(0.99),
+                recorder.percentile(0.999), recorder.getMax());
+    }
+
+    /**
+     * A platform thread with a small stack, so thousands fit, or a virtual thread.
+     */
+    private Thread newThread(Runnable user, String name) {
+
+        if (!virtual) {
+            Thread thread = new Thread(null, user, name, THREAD_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class).invoke(builder, name);
+            return (Thread) builderType.getMethod("unstarted", Runnable.class).invoke(builder, user);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+        }
+    }
+
+    /**
+     * The threads whose allocations are counted: the simulated users, which run the
+     * authenticator as the servlet container's threads would, and the RADIUS client's
+     * selector threads. The stub server's threads are left out. The JVM does not count
+     * virtual threads on their own, their allocations are taken from the carrier threads.
+     */
+    private static long[] measuredThreadIds(List<Thread> users, boolean virtual) {
+
+        List<Long> ids = new ArrayList<>();
+        for (Thread thread : users) {
+            ids.add(thread.getId());
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("CASQUE-RADIUS")
+                    || (virtual && thread.getName().startsWith("ForkJoinPool-"))) {
+                ids.add(thread.getId());
+            }
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the bytes the threads have allocated, or -1 if the JVM can not tell.
+     */
+    private static long allocatedBytes(long[] threadIds) {
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : allocationBean.getThreadAllocatedBytes(threadIds)) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * One simulated user logging in over and over.
+     * Only logins that start and finish while measuring are recorded.
+     */
+    private final class VirtualUser implements Runnable {
+
+        private final String sessionPrefix;
+        private final HttpServletRequest challengeRequest;
+        private final HttpServletRequest responseRequest;
+        private final HttpServletResponse response = LoadTestStubs.response();
+        private final LatencyRecorder challengeLeg = new LatencyRecorder();
+        private final LatencyRecorder responseLeg = new LatencyRecorder();
+        private final LatencyRecorder login = new LatencyRecorder();
+        private long failed;
+        private long sequence;
+
+        VirtualUser(int index) {
+
+            String userName = String.format(Locale.ROOT, "%s%06d", USER_PREFIX, index + 1);
+            sessionPrefix = userName + "-";
+            Map<String, String> first = new HashMap<>();
+            first.put(CasqueAuthenticatorConstants.USER_NAME, userName);
+            challengeRequest = LoadTestStubs.request(first);
+            Map<String, String> second = new HashMap<>();
+            second.put(CasqueAuthenticatorConstants.BTN_ACTION, CasqueAuthenticatorConstants.LOGIN);
+            second.put(CasqueAuthenticatorConstants.RESPONSE, CasqueStubServer.DEFAULT_RESPONSE);
+            responseRequest = LoadTestStubs.request(second);
+        }
+
+        @Override
+        public void run() {
+
+            while (running) {
+                boolean measured = measuring;
+                AuthenticationContext context = new AuthenticationContext();
+                context.setContextIdentifier(sessionPrefix + sequence++);
+                try {
+                    long start = System.nanoTime();
+                    AuthenticatorFlowStatus status = authenticator.process(challengeRequest, response, context);
+                    long challenged = System.nanoTime();
+                    if (status != AuthenticatorFlowStatus.INCOMPLETE) {
+                        throw new IllegalStateException("Expected the challenge page, the flow status is " + status);
+                    }
+                    if (thinkMillis > 0) {
+                        Thread.sleep(thinkMillis);
+                    }
+                    long answered = System.nanoTime();
+                    status = authenticator.process(responseRequest, response, context);
+                    long end = System.nanoTime();
+                    if (status != AuthenticatorFlowStatus.SUCCESS_COMPLETED) {
+                        throw new IllegalStateException("Expected the login to complete, the flow status is "
+                                + status);
+                    }
+                    if (measured && measuring) {
+                        challengeLeg.record(challenged - start);
+                        responseLeg.record(end - answered);
+                        login.record(challenged - start + end - answered);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (AuthenticationFailedException | LogoutFailedException | RuntimeException e) {
+                    if (measured && measuring) {
+                        failed++;
+                    }
+                    firstFailure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+/**
+ * Latency histogram for one load generator thread.
+ * Buckets are log-linear, 32 per power of two, so a percentile is within about 3% of the
+ * recorded value all the way out to p99.9. Not thread safe, each thread records into its own
+ * and they are merged once the run is over.
+ */
+class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Record one operation.
+     *
+     * @param nanos how long it took in nanoseconds.
+     */
+    void record(long nanos) {
+
+        long micros = Math.max(0, nanos / 1000L);
+        counts[index(micros)]++;
+        count++;
+        total += micros;
+        max = Math.max(max, micros);
+    }
+
+    /**
+     * Add the operations recorded by another thread.
+     *
+     * @param other the recorder to merge in.
+     */
+    void add(LatencyRecorder other) {
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+
+        return count;
+    }
+
+    /**
+     * @return the mean in milliseconds.
+     */
+    double getMean() {
+
+        return count == 0 ? 0 : total / 1000.0 / count;
+    }
+
+    /**
+     * @return the maximum in milliseconds.
+     */
+    double getMax() {
+
+        return max / 1000.0;
+    }
+
+    /**
+     * Find the bucket a percentile falls in.
+     *
+     * @param fraction the percentile, e.g. 0.999.
+     * @return the upper bound of its bucket in milliseconds, no more than the maximum.
+     */
+    double percentile(double fraction) {
+
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max) / 1000.0;
+            }
+        }
+        return max / 1000.0;
+    }
+
+    /**
+     * Values below 64 microseconds get a bucket each, above that the top six bits select the
+     * bucket within the value's power of two.
+     */
+    private static int index(long micros) {
+
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (micros >>> shift);
+    }
+
+    private static long upperBound(int index) {
+
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
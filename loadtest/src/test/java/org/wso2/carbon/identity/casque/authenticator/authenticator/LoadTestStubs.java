@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.casque.authenticator.authenticator;
+
+import org.wso2.carbon.base.MultitenantConstants;
+import org.wso2.carbon.user.api.RealmConfiguration;
+import org.wso2.carbon.user.core.service.RealmService;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stand-ins for the servlet container and the user realm.
+ * Plain proxies rather than mocks, a mocking library records every call, which would
+ * grow without bound over a long run and show up in the allocation rate.
+ */
+final class LoadTestStubs {
+
+    private LoadTestStubs() {
+
+    }
+
+    /**
+     * A request carrying fixed parameters.
+     *
+     * @param parameters the request parameters.
+     * @return the request.
+     */
+    static HttpServletRequest request(final Map<String, String> parameters) {
+
+        return stub(HttpServletRequest.class, (proxy, method, args) -> {
+            if ("getParameter".equals(method.getName())) {
+                return parameters.get((String) args[0]);
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    /**
+     * A response whose content is discarded.
+     *
+     * @return the response.
+     */
+    static HttpServletResponse response() {
+
+        final DiscardingOutputStream out = new DiscardingOutputStream();
+        return stub(HttpServletResponse.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getOutputStream":
+                    return out;
+                case "getBufferSize":
+                    return 8192;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * A realm where every user is in the super tenant and has a CASQUE Token ID,
+     * "FFF " followed by the last six digits of the user name.
+     *
+     * @return the realm service.
+     */
+    static RealmService realmService() {
+
+        final RealmConfiguration realmConfiguration = new RealmConfiguration();
+        final Object tenantManager = stub(tenantManagerType(), (proxy, method, args) -> {
+            if ("getTenantId".equals(method.getName())) {
+                return MultitenantConstants.SUPER_TENANT_ID;
+            }
+            return defaultValue(method.getReturnType());
+        });
+        final Object userStoreManager = stub(userStoreManagerType(), (proxy, method, args) -> {
+            if ("getUserClaimValues".equals(method.getName()) && args.length == 3
+                    && args[1] instanceof String[]) {
+                String userName = (String) args[0];
+                String tokenId = "FFF " + userName.substring(Math.max(0, userName.length() - 6));
+                return Collections.singletonMap(((String[]) args[1])[0], tokenId);
+            }
+            return defaultValue(method.getReturnType());
+        });
+        final Object userRealm = stub(userRealmType(), (proxy, method, args) -> {
+            if ("getUserStoreManager".equals(method.getName())) {
+                return userStoreManager;
+            }
+            return defaultValue(method.getReturnType());
+        });
+        return stub(RealmService.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getTenantManager":
+                    return tenantManager;
+                case "getTenantUserRealm":
+                    return userRealm;
+                case "getBootstrapRealmConfiguration":
+                    return realmConfiguration;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Class<?> tenantManagerType() {
+
+        return returnType(RealmService.class, "getTenantManager");
+    }
+
+    private static Class<?> userRealmType() {
+
+        return returnType(RealmService.class, "getTenantUserRealm", int.class);
+    }
+
+    private static Class<?> userStoreManagerType() {
+
+        return returnType(userRealmType(), "getUserStoreManager");
+    }
+
+    /**
+     * The realm interfaces narrow their return types between the user API and user core
+     * versions, take whichever the running version declares.
+     */
+    private static Class<?> returnType(Class<?> type, String name, Class<?>... parameterTypes) {
+
+        try {
+            return type.getMethod(name, parameterTypes).getReturnType();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(type.getName() + " has no " + name + " method", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+
+        return (T) Proxy.newProxyInstance(LoadTestStubs.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return type.getSimpleName() + " stub";
+                        }
+                    }
+                    return handler.invoke(proxy, method, args);
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Servlet output stream dropping what is written to it.
+     */
+    private static class DiscardingOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+        }
+
+        @Override
+        public boolean isReady() {
+
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+
+        }
+    }
+}